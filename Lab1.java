@@ -1,118 +1,2256 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 // Лабораторна робота №1
 // Тема: Патерн проектування "Одинак (Singleton)"
 
-public class SingletonFileStorageDemo {
+public class SingletonFileStorageDemo {
+
+    public static void main(String[] args) throws IOException {
+
+        // Отримання єдиного екземпляра менеджера сховищ
+        StorageManager manager = StorageManager.getInstance();
+
+        // Створення користувача та призначення йому локального сховища
+        User user1 = User.bind("user_01");
+        manager.assignStorageToUser(user1.getUserId(), new LocalDiskStorage());
+        user1.uploadFile("document.txt");
+
+        // Створення користувача та призначення йому Amazon S3
+        User user2 = User.bind("user_02");
+        manager.assignStorageToUser(user2.getUserId(), new AmazonS3Storage());
+        user2.downloadFile("photo.png");
+
+        // Паралельні операції через асинхронний адаптер з лімітом бекенда
+        AsyncStorage asyncS3 = new AsyncStorageAdapter(manager.getStorageForUser(user2.getUserId()));
+        java.util.concurrent.CompletableFuture.allOf(
+                asyncS3.uploadFile("a.png"), asyncS3.uploadFile("b.png"), asyncS3.uploadFile("c.png")).join();
+
+        // Потокове завантаження файлу без проміжних масивів у купі
+        LocalDiskStorage disk = new LocalDiskStorage(Files.createTempDirectory("storage-demo"),
+                new MappedRegionCache(1024 * 1024, 64));
+        Path source = Files.createTempFile("report", ".txt");
+        Files.writeString(source, "Quarterly report");
+        long uploaded = disk.uploadFile("report.txt", source);
+        long served = disk.downloadFile("report.txt", System.out);
+        System.out.println();
+        System.out.println("Передано байтів: " + uploaded + " / " + served);
+
+        // Читання діапазону з відображеного в пам'ять регіону
+        try (MappedRegionCache.Lease range = disk.readRange("report.txt", 0, 9)) {
+            System.out.println("Діапазон: " + java.nio.charset.StandardCharsets.UTF_8.decode(range.buffer()));
+        }
+        disk.deleteFile("report.txt");
+        Files.delete(source);
+        Files.delete(disk.getRootDir());
+
+        // Дворівневе сховище: після кількох читань файл обслуговується з локального диска
+        Path hotDir = Files.createTempDirectory("hot-tier");
+        try (TieredStorage tiered = new TieredStorage(new LocalDiskStorage(hotDir),
+                new AmazonS3Storage(), 64L * 1024 * 1024, 3, java.time.Duration.ofSeconds(30))) {
+            manager.assignStorageToUser(user2.getUserId(), tiered);
+            IStreamingStorage storage = (IStreamingStorage) manager.getStorageForUser(user2.getUserId());
+            storage.uploadFile("hot.txt", new java.io.ByteArrayInputStream("hot data".getBytes()));
+            for (int i = 0; i < 3; i++) {
+                storage.downloadFile("hot.txt", new java.io.ByteArrayOutputStream());
+            }
+            Thread.sleep(100);
+            System.out.println("hot.txt на локальному диску: " + tiered.isHot("hot.txt"));
+            tiered.deleteFile("hot.txt");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.delete(hotDir);
+
+        // Метрики операцій, зібрані менеджером
+        for (OperationSnapshot snapshot : manager.getMetrics().snapshot()) {
+            System.out.println(snapshot);
+        }
+    }
+}
+
+// Інтерфейс сховища, який визначає спільний контракт для всіх реалізацій
+interface IStorage {
+
+    void uploadFile(String fileName);
+
+    void downloadFile(String fileName);
+
+    void deleteFile(String fileName);
+}
+
+// Потоковий контракт сховища: дані передаються каналами або потоками, а не через масиви
+interface IStreamingStorage extends IStorage {
+
+    // Записує весь вміст каналу у файл і повертає кількість байтів
+    long uploadFile(String fileName, ReadableByteChannel source) throws IOException;
+
+    // Записує вміст файлу в канал (наприклад, SocketChannel) і повертає кількість байтів
+    long downloadFile(String fileName, WritableByteChannel target) throws IOException;
+
+    // Копіює локальний файл у сховище
+    default long uploadFile(String fileName, Path source) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return uploadFile(fileName, in);
+        }
+    }
+
+    // Копіює файл зі сховища у локальний файл
+    default long downloadFile(String fileName, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return downloadFile(fileName, out);
+        }
+    }
+
+    // Обгортка для потоків; файлові потоки передаються напряму своїм каналом
+    default long uploadFile(String fileName, InputStream source) throws IOException {
+        ReadableByteChannel channel = source instanceof FileInputStream
+                ? ((FileInputStream) source).getChannel()
+                : Channels.newChannel(source);
+        return uploadFile(fileName, channel);
+    }
+
+    default long downloadFile(String fileName, OutputStream target) throws IOException {
+        WritableByteChannel channel = target instanceof FileOutputStream
+                ? ((FileOutputStream) target).getChannel()
+                : Channels.newChannel(target);
+        return downloadFile(fileName, channel);
+    }
+}
+
+// Реалізація сховища для локального диску
+class LocalDiskStorage implements IStreamingStorage {
+
+    // Максимальний обсяг одного виклику transferTo/transferFrom
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+
+    // Каталог, у якому зберігаються файли
+    private final Path rootDir;
+
+    // Спільний кеш відображених регіонів; null вимикає режим відображення
+    private final MappedRegionCache mappedCache;
+
+    public LocalDiskStorage() {
+        this(Paths.get(System.getProperty("java.io.tmpdir"), "local-disk-storage"));
+    }
+
+    public LocalDiskStorage(Path rootDir) {
+        this(rootDir, null);
+    }
+
+    public LocalDiskStorage(Path rootDir, MappedRegionCache mappedCache) {
+        this.rootDir = rootDir.toAbsolutePath().normalize();
+        this.mappedCache = mappedCache;
+    }
+
+    public Path getRootDir() {
+        return rootDir;
+    }
+
+    @Override
+    public long uploadFile(String fileName, ReadableByteChannel source) throws IOException {
+        Path target = resolve(fileName);
+        Files.createDirectories(target.getParent());
+        // Новий вміст пишеться поруч і підміняється атомарним перейменуванням: файл
+        // не обрізається на місці, тож відкриті оренди й далі читають старий inode
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            long done;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (source instanceof FileChannel) {
+                    // Файл-у-файл: ядро копіює дані без участі купи JVM
+                    FileChannel in = (FileChannel) source;
+                    long size = in.size() - in.position();
+                    long start = in.position();
+                    done = transferFully(in, start, size, out);
+                    in.position(start + done);
+                } else {
+                    done = 0;
+                    long n;
+                    while ((n = out.transferFrom(source, done, TRANSFER_CHUNK)) > 0) {
+                        done += n;
+                    }
+                }
+            }
+            Files.move(temp, target, java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            if (mappedCache != null) {
+                // Після підміни старі регіони з пулу більше не актуальні
+                mappedCache.invalidate(target);
+            }
+            return done;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public long downloadFile(String fileName, WritableByteChannel target) throws IOException {
+        try (FileChannel in = FileChannel.open(resolve(fileName), StandardOpenOption.READ)) {
+            return transferFully(in, 0, in.size(), target);
+        }
+    }
+
+    // Передає count байтів, починаючи з position; transferTo може повернути 0,
+    // якщо файл укоротили або неблокуючий приймач не приймає даних, тож
+    // замість нескінченного циклу такий випадок завершується винятком
+    static long transferFully(FileChannel in, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, Math.min(TRANSFER_CHUNK, count - done), target);
+            if (n > 0) {
+                done += n;
+            } else if (position + done >= in.size()) {
+                throw new EOFException("Файл укорочено під час передачі: передано "
+                        + done + " з " + count + " байтів");
+            } else {
+                throw new IOException("Канал-приймач не прийняв жодного байта");
+            }
+        }
+        return done;
+    }
+
+    @Override
+    public void uploadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено на локальний диск");
+    }
+
+    @Override
+    public void downloadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено з локального диску");
+    }
+
+    // Повертає діапазон файлу лише для читання. Результат може бути коротшим за length,
+    // якщо діапазон перетинає межу регіону або кінець файлу, тож читати слід у циклі.
+    // Оренду слід закрити: доти відображений регіон не буде знято.
+    public MappedRegionCache.Lease readRange(String fileName, long offset, int length) throws IOException {
+        Path path = resolve(fileName);
+        if (mappedCache != null) {
+            return mappedCache.read(path, offset, length);
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, in.size() - offset)));
+            while (buffer.hasRemaining() && in.read(buffer, offset + buffer.position()) >= 0) {
+                // читаємо, доки буфер не заповниться
+            }
+            return MappedRegionCache.Lease.of(buffer.flip());
+        }
+    }
+
+    @Override
+    public void deleteFile(String fileName) {
+        try {
+            Path path = resolve(fileName);
+            if (mappedCache != null) {
+                mappedCache.invalidate(path);
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+        System.out.println("Файл " + fileName + " видалено з локального диску");
+    }
+
+    // Перетворює ім'я файлу на шлях, не дозволяючи вийти за межі кореневого каталогу
+    Path resolve(String fileName) {
+        Path path = rootDir.resolve(fileName).normalize();
+        if (!path.startsWith(rootDir) || path.equals(rootDir)) {
+            throw new IllegalArgumentException("Недопустиме ім'я файлу: " + fileName);
+        }
+        return path;
+    }
+}
+
+// Режим дедуплікації для локального диска: файл ділиться на фрагменти за вмістом
+// (content-defined chunking на основі Gear-хешу), кожен унікальний фрагмент
+// зберігається один раз під своїм SHA-256. Індекс фрагментів із лічильниками посилань
+// тримається в пам'яті, тому перевірка "такий фрагмент уже є" не звертається до диска.
+class DeduplicatingDiskStorage implements IStreamingStorage {
+
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    // Середній розмір фрагмента 8 КБ: межа там, де нульові 13 бітів маски FastCDC.
+    // Після зсуву вліво молодші біти Gear-хешу залежать лише від кількох останніх
+    // байтів, тому маска розкидана по бітах 16-47 з довшим вікном залежності
+    private static final long CUT_MASK = 0x0000_d903_0353_0000L;
+    private static final int HASH_LENGTH = 32;
+
+    // Таблиця Gear: фіксоване зерно, щоб межі фрагментів не змінювались між запусками
+    private static final long[] GEAR = new java.util.SplittableRandom(0x5eed_c0deL).longs(256).toArray();
+
+    private final Path chunkDir;
+    private final Path manifestDir;
+
+    // Хеш фрагмента -> кількість посилань із маніфестів файлів; змінюється лише
+    // під блокуванням смуги фрагмента, читається без блокувань
+    private final java.util.concurrent.ConcurrentMap<ChunkId, Integer> chunkRefs =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    // Смуги блокувань: фрагменти серіалізують запис і видалення свого файлу,
+    // файли — заміну й видалення маніфесту; кількість блокувань фіксована
+    private static final int LOCK_STRIPES = 256;
+    private final Object[] chunkLocks = newLocks();
+    private final Object[] fileLocks = newLocks();
+    // Ім'я файлу -> впорядкований список його фрагментів
+    private final java.util.concurrent.ConcurrentMap<String, Manifest> manifests =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    private final java.util.concurrent.atomic.LongAdder logicalBytes = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder storedBytes = new java.util.concurrent.atomic.LongAdder();
+
+    // Відновлює індекс із маніфестів, збережених попереднім запуском
+    public DeduplicatingDiskStorage(Path rootDir) throws IOException {
+        Path root = rootDir.toAbsolutePath().normalize();
+        this.chunkDir = root.resolve("chunks");
+        this.manifestDir = root.resolve("manifests");
+        Files.createDirectories(chunkDir);
+        Files.createDirectories(manifestDir);
+        loadIndex();
+    }
+
+    @Override
+    public void uploadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено на локальний диск (дедуплікація)");
+    }
+
+    @Override
+    public void downloadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено з локального диску (дедуплікація)");
+    }
+
+    @Override
+    public long uploadFile(String fileName, ReadableByteChannel source) throws IOException {
+        Path manifestPath = manifestPath(fileName);
+        java.security.MessageDigest digest = sha256();
+        java.util.List<ChunkId> chunks = new java.util.ArrayList<>();
+        ByteBuffer input = ByteBuffer.allocate(MAX_CHUNK);
+        byte[] chunk = new byte[MAX_CHUNK];
+        int length = 0;
+        long hash = 0;
+        long total = 0;
+        try {
+            while (source.read(input.clear()) >= 0) {
+                input.flip();
+                while (input.hasRemaining()) {
+                    byte b = input.get();
+                    chunk[length++] = b;
+                    hash = (hash << 1) + GEAR[b & 0xff];
+                    if ((length >= MIN_CHUNK && (hash & CUT_MASK) == 0) || length == MAX_CHUNK) {
+                        chunks.add(storeChunk(digest, chunk, length));
+                        total += length;
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                chunks.add(storeChunk(digest, chunk, length));
+                total += length;
+            }
+            Manifest manifest = new Manifest(chunks.toArray(new ChunkId[0]), total);
+            Manifest previous;
+            // Маніфест на диску і в пам'яті замінюються разом, інакше паралельні
+            // завантаження одного імені могли б залишити їх різними
+            synchronized (lock(fileLocks, fileName)) {
+                writeManifest(manifestPath, manifest.chunks);
+                previous = manifests.put(fileName, manifest);
+            }
+            logicalBytes.add(total);
+            if (previous != null) {
+                logicalBytes.add(-previous.size);
+                release(previous.chunks);
+            }
+            return total;
+        } catch (IOException | RuntimeException e) {
+            // Фрагменти, збережені до помилки, не належать жодному маніфесту
+            release(chunks.toArray(new ChunkId[0]));
+            throw e;
+        }
+    }
+
+    @Override
+    public long downloadFile(String fileName, WritableByteChannel target) throws IOException {
+        Manifest manifest = manifests.get(fileName);
+        if (manifest == null) {
+            throw new java.nio.file.NoSuchFileException(fileName);
+        }
+        long total = 0;
+        for (ChunkId id : manifest.chunks) {
+            try (FileChannel in = FileChannel.open(chunkPath(id), StandardOpenOption.READ)) {
+                total += LocalDiskStorage.transferFully(in, 0, in.size(), target);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void deleteFile(String fileName) {
+        Manifest manifest;
+        synchronized (lock(fileLocks, fileName)) {
+            manifest = manifests.remove(fileName);
+            if (manifest != null) {
+                try {
+                    Files.deleteIfExists(manifestPath(fileName));
+                } catch (IOException e) {
+                    manifests.put(fileName, manifest);
+                    throw new java.io.UncheckedIOException(e);
+                }
+            }
+        }
+        if (manifest != null) {
+            logicalBytes.add(-manifest.size);
+            release(manifest.chunks);
+        }
+        System.out.println("Файл " + fileName + " видалено з локального диску (дедуплікація)");
+    }
+
+    // Відповідь із пам'яті, без звернення до диска
+    public boolean containsChunk(byte[] sha256) {
+        return chunkRefs.containsKey(new ChunkId(sha256));
+    }
+
+    public int getUniqueChunks() {
+        return chunkRefs.size();
+    }
+
+    // Сумарний розмір збережених файлів до дедуплікації
+    public long getLogicalBytes() {
+        return logicalBytes.sum();
+    }
+
+    // Байти, фактично записані на диск
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    // Дані нового фрагмента пишуться у тимчасовий файл без блокувань; під
+    // блокуванням смуги лише публікується готовий файл і змінюється лічильник,
+    // тож паралельне видалення останнього посилання не прибере щойно використаний файл
+    private ChunkId storeChunk(java.security.MessageDigest digest, byte[] chunk, int length) throws IOException {
+        digest.update(chunk, 0, length);
+        ChunkId id = new ChunkId(digest.digest());
+        Path temp = chunkRefs.containsKey(id) ? null : writeTemp(id, chunk, length);
+        try {
+            synchronized (lock(chunkLocks, id)) {
+                Integer refs = chunkRefs.get(id);
+                if (refs == null) {
+                    if (temp == null) {
+                        // Фрагмент видалили, поки ми його шукали: записуємо заново
+                        temp = writeTemp(id, chunk, length);
+                    }
+                    // Вміст адресується хешем, тож залишок після збою можна замінити
+                    Files.move(temp, chunkPath(id), java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                            java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                    temp = null;
+                    storedBytes.add(length);
+                }
+                chunkRefs.put(id, refs == null ? 1 : refs + 1);
+            }
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return id;
+    }
+
+    // Тимчасовий файл унікальний для кожного виклику, тому паралельні записи не конфліктують
+    private Path writeTemp(ChunkId id, byte[] chunk, int length) throws IOException {
+        Path path = chunkPath(id);
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(chunk, 0, length);
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    // Зменшує лічильники й видаляє фрагменти, на які більше ніхто не посилається.
+    // Помилка видалення одного файлу не зупиняє звільнення решти фрагментів
+    private void release(ChunkId[] manifest) {
+        java.io.UncheckedIOException failure = null;
+        for (ChunkId id : manifest) {
+            synchronized (lock(chunkLocks, id)) {
+                Integer refs = chunkRefs.get(id);
+                if (refs == null) {
+                    continue;
+                }
+                if (refs > 1) {
+                    chunkRefs.put(id, refs - 1);
+                    continue;
+                }
+                chunkRefs.remove(id);
+                try {
+                    Path path = chunkPath(id);
+                    storedBytes.add(-Files.size(path));
+                    Files.delete(path);
+                } catch (java.nio.file.NoSuchFileException e) {
+                    // файл уже зник, рахувати нічого
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = new java.io.UncheckedIOException(e);
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeManifest(Path path, ChunkId[] manifest) throws IOException {
+        Files.createDirectories(path.getParent());
+        ByteBuffer data = ByteBuffer.allocate(manifest.length * HASH_LENGTH);
+        for (ChunkId id : manifest) {
+            data.put(id.hash);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, data.array());
+        Files.move(temp, path, java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Маніфест, що посилається на відсутній фрагмент або має неповний запис,
+    // пропускається: такий файл не можна віддати цілим, а решта індексу придатна
+    private void loadIndex() throws IOException {
+        removeTempFiles(chunkDir);
+        removeTempFiles(manifestDir);
+        try (java.util.stream.Stream<Path> files = Files.walk(manifestDir)) {
+            for (Path path : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String fileName = manifestDir.relativize(path).toString().replace(java.io.File.separatorChar, '/');
+                byte[] data = Files.readAllBytes(path);
+                if (data.length % HASH_LENGTH != 0) {
+                    System.out.println("Маніфест " + fileName + " пошкоджено, файл пропущено");
+                    continue;
+                }
+                ChunkId[] chunks = new ChunkId[data.length / HASH_LENGTH];
+                long[] sizes = new long[chunks.length];
+                long size = 0;
+                try {
+                    for (int i = 0; i < chunks.length; i++) {
+                        chunks[i] = new ChunkId(java.util.Arrays.copyOfRange(data, i * HASH_LENGTH, (i + 1) * HASH_LENGTH));
+                        sizes[i] = Files.size(chunkPath(chunks[i]));
+                        size += sizes[i];
+                    }
+                } catch (java.nio.file.NoSuchFileException e) {
+                    System.out.println("Для файлу " + fileName + " бракує фрагмента " + e.getFile() + ", файл пропущено");
+                    continue;
+                }
+                for (int i = 0; i < chunks.length; i++) {
+                    if (chunkRefs.merge(chunks[i], 1, Integer::sum) == 1) {
+                        storedBytes.add(sizes[i]);
+                    }
+                }
+                logicalBytes.add(size);
+                manifests.put(fileName, new Manifest(chunks, size));
+            }
+        }
+    }
+
+    // Прибирає тимчасові файли, залишені записом, який перервав збій
+    private static void removeTempFiles(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path manifestPath(String fileName) {
+        Path path = manifestDir.resolve(fileName).normalize();
+        if (!path.startsWith(manifestDir) || path.equals(manifestDir) || fileName.endsWith(".tmp")) {
+            throw new IllegalArgumentException("Недопустиме ім'я файлу: " + fileName);
+        }
+        return path;
+    }
+
+    // Фрагменти розкладено по підкаталогах за першим байтом хешу
+    private Path chunkPath(ChunkId id) {
+        String hex = id.toString();
+        return chunkDir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    private static Object lock(Object[] locks, Object key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static java.security.MessageDigest sha256() {
+        try {
+            return java.security.MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступний", e);
+        }
+    }
+
+    private static final class Manifest {
+        private final ChunkId[] chunks;
+        private final long size;
+
+        Manifest(ChunkId[] chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+    }
+
+    private static final class ChunkId {
+        private final byte[] hash;
+        private final int hashCode;
+
+        ChunkId(byte[] hash) {
+            this.hash = hash;
+            // SHA-256 рівномірно розподілений, тож перших чотирьох байтів достатньо
+            this.hashCode = (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChunkId && java.util.Arrays.equals(hash, ((ChunkId) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+}
+
+// Спільний для кількох сховищ пул відображених у пам'ять регіонів файлів.
+// Файл ділиться на регіони фіксованого розміру, кількість відображень обмежена,
+// найдавніше використане витісняється (LRU).
+class MappedRegionCache {
+
+    private final int regionSize;
+    private final int maxRegions;
+
+    // LinkedHashMap у режимі access-order реалізує LRU; доступ лише під монітором this
+    private final java.util.LinkedHashMap<RegionKey, Region> regions;
+
+    // Файли з незавершеними відображеннями; запис живе, лише доки відображення триває
+    private final java.util.Map<Path, PendingMaps> pending = new java.util.HashMap<>();
+
+    private final java.util.concurrent.atomic.LongAdder hits = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder misses = new java.util.concurrent.atomic.LongAdder();
+
+    public MappedRegionCache(int regionSize, int maxRegions) {
+        if (regionSize <= 0 || maxRegions <= 0) {
+            throw new IllegalArgumentException("regionSize і maxRegions мають бути додатними");
+        }
+        this.regionSize = regionSize;
+        this.maxRegions = maxRegions;
+        this.regions = new java.util.LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<RegionKey, Region> eldest) {
+                if (size() <= MappedRegionCache.this.maxRegions) {
+                    return false;
+                }
+                eldest.getValue().retire();
+                return true;
+            }
+        };
+    }
+
+    // Повертає зріз регіону лише для читання, не довший за межу регіону. Регіон
+    // закріплений, доки оренду не закрито; після close() зріз читати не можна
+    public Lease read(Path file, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Недопустимий діапазон: " + offset + "+" + length);
+        }
+        long index = offset / regionSize;
+        Region region = region(file, index);
+        if (region == null) {
+            return Lease.of(ByteBuffer.allocate(0));
+        }
+        int start = (int) (offset - index * regionSize);
+        int end = (int) Math.min(region.buffer.capacity(), (long) start + length);
+        if (start >= end) {
+            release(region);
+            return Lease.of(ByteBuffer.allocate(0));
+        }
+        return new Lease(region.buffer.slice(start, end - start).asReadOnlyBuffer(), this, region);
+    }
+
+    // Прибирає з пулу всі регіони файлу і знімає їх відображення. Регіон, який
+    // ще читають через оренду, знімається при закритті останньої оренди
+    public synchronized void invalidate(Path file) {
+        PendingMaps inFlight = pending.get(file);
+        if (inFlight != null) {
+            inFlight.generation++;
+        }
+        java.util.Iterator<java.util.Map.Entry<RegionKey, Region>> it = regions.entrySet().iterator();
+        while (it.hasNext()) {
+            java.util.Map.Entry<RegionKey, Region> entry = it.next();
+            if (entry.getKey().file.equals(file)) {
+                it.remove();
+                entry.getValue().retire();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Повертає закріплений регіон або null, якщо зміщення за кінцем файлу
+    private Region region(Path file, long index) throws IOException {
+        RegionKey key = new RegionKey(file, index);
+        PendingMaps inFlight;
+        long observedGeneration;
+        synchronized (this) {
+            Region cached = regions.get(key);
+            if (cached != null) {
+                hits.increment();
+                cached.pins++;
+                return cached;
+            }
+            inFlight = pending.computeIfAbsent(file, path -> new PendingMaps());
+            inFlight.mappings++;
+            observedGeneration = inFlight.generation;
+        }
+        misses.increment();
+        // Відображення створюється поза монітором, щоб не блокувати читачів інших регіонів
+        MappedByteBuffer mapped = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = index * regionSize;
+            long size = channel.size();
+            if (start < size) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, size - start));
+            }
+        } finally {
+            synchronized (this) {
+                if (--inFlight.mappings == 0) {
+                    pending.remove(file);
+                }
+            }
+        }
+        if (mapped == null) {
+            // Регіон за кінцем файлу не відображається і не займає місце в пулі
+            return null;
+        }
+        Region region = new Region(mapped);
+        synchronized (this) {
+            region.pins = 1;
+            if (observedGeneration != inFlight.generation) {
+                // Файл інвалідовано під час відображення: регіон живе лише до кінця оренди
+                region.retired = true;
+                return region;
+            }
+            Region raced = regions.get(key);
+            if (raced != null) {
+                raced.pins++;
+                unmap(mapped);
+                return raced;
+            }
+            regions.put(key, region);
+            return region;
+        }
+    }
+
+    private synchronized void release(Region region) {
+        if (--region.pins == 0 && region.retired) {
+            unmap(region.buffer);
+        }
+    }
+
+    // Знімає відображення негайно, не чекаючи GC. Доступ до зрізів після цього
+    // призвів би до збою JVM, тому викликається лише для незакріплених регіонів
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER != null) {
+            try {
+                UNMAPPER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                // відображення звільнить GC
+            }
+        }
+    }
+
+    private static final Object UNSAFE;
+    private static final java.lang.reflect.Method UNMAPPER;
+
+    static {
+        Object unsafe = null;
+        java.lang.reflect.Method unmapper = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            java.lang.reflect.Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            unmapper = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // без sun.misc.Unsafe відображення звільняє лише GC
+        }
+        UNSAFE = unsafe;
+        UNMAPPER = unmapper;
+    }
+
+    // Оренда діапазону: тримає регіон відображеним, доки її не закрито
+    public static final class Lease implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final MappedRegionCache owner;
+        private Region region;
+        private boolean closed;
+
+        private Lease(ByteBuffer buffer, MappedRegionCache owner, Region region) {
+            this.buffer = buffer;
+            this.owner = owner;
+            this.region = region;
+        }
+
+        // Оренда буфера в купі, яка нічого не закріплює
+        static Lease of(ByteBuffer buffer) {
+            return new Lease(buffer.asReadOnlyBuffer(), null, null);
+        }
+
+        // Кожен виклик дає власне подання з незалежною позицією; після close()
+        // буфер не видається, а вже отримані подання читати не можна
+        public synchronized ByteBuffer buffer() {
+            if (closed) {
+                throw new IllegalStateException("Оренду вже закрито");
+            }
+            return buffer.duplicate();
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (region != null) {
+                owner.release(region);
+                region = null;
+            }
+        }
+    }
+
+    // Відображений регіон; pins і retired змінюються лише під монітором кешу
+    private static final class Region {
+        private final MappedByteBuffer buffer;
+        private int pins;
+        private boolean retired;
+
+        Region(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        // Вилучений з пулу регіон знімається, щойно його ніхто не читає
+        void retire() {
+            retired = true;
+            if (pins == 0) {
+                unmap(buffer);
+            }
+        }
+    }
+
+    // Незавершені відображення файлу та номер його інвалідації
+    private static final class PendingMaps {
+        private int mappings;
+        private long generation;
+    }
+
+    private static final class RegionKey {
+        private final Path file;
+        private final long index;
+
+        RegionKey(Path file, long index) {
+            this.file = file;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RegionKey)) {
+                return false;
+            }
+            RegionKey other = (RegionKey) o;
+            return index == other.index && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + Long.hashCode(index);
+        }
+    }
+}
+
+// Реалізація сховища для Amazon S3
+class AmazonS3Storage implements IStreamingStorage {
+
+    private final S3Client client;
+    private final MultipartUploader uploader;
+
+    // Без параметрів працює з вбудованою заглушкою S3 у пам'яті процесу
+    public AmazonS3Storage() {
+        this(new InMemoryS3Client(), new MultipartUploader(8L * 1024 * 1024, 8, 3));
+    }
+
+    public AmazonS3Storage(S3Client client, MultipartUploader uploader) {
+        this.client = client;
+        this.uploader = uploader;
+    }
+
+    @Override
+    public void uploadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено в Amazon S3");
+    }
+
+    @Override
+    public void downloadFile(String fileName) {
+        System.out.println("Файл " + fileName + " завантажено з Amazon S3");
+    }
+
+    // Файл завантажується частинами паралельно, інший канал читається послідовно
+    @Override
+    public long uploadFile(String fileName, ReadableByteChannel source) throws IOException {
+        if (source instanceof FileChannel) {
+            return uploader.upload(client, fileName, (FileChannel) source);
+        }
+        return uploader.upload(client, fileName, source);
+    }
+
+    @Override
+    public long downloadFile(String fileName, WritableByteChannel target) throws IOException {
+        return client.getObject(fileName, target);
+    }
+
+    @Override
+    public void deleteFile(String fileName) {
+        client.deleteObject(fileName);
+        System.out.println("Файл " + fileName + " видалено з Amazon S3");
+    }
+}
+
+// Мінімальний контракт S3, потрібний сховищу (звичайний та multipart-запис, читання, видалення)
+interface S3Client {
+
+    void putObject(String key, ByteBuffer data) throws IOException;
+
+    long getObject(String key, WritableByteChannel target) throws IOException;
+
+    boolean deleteObject(String key);
+
+    String createMultipartUpload(String key) throws IOException;
+
+    // Повертає ETag частини; номери частин починаються з 1
+    String uploadPart(String uploadId, int partNumber, ByteBuffer data) throws IOException;
+
+    void completeMultipartUpload(String uploadId, java.util.List<String> etags) throws IOException;
+
+    void abortMultipartUpload(String uploadId);
+}
+
+// Заглушка S3 у пам'яті процесу для офлайн-перевірки пропускної здатності та збоїв.
+// Пропускна здатність обмежується на одне з'єднання, як у реального S3.
+class InMemoryS3Client implements S3Client {
+
+    private final java.util.concurrent.ConcurrentMap<String, byte[]> objects =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final java.util.concurrent.ConcurrentMap<String, PendingUpload> uploads =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final java.util.concurrent.atomic.AtomicLong uploadIds = new java.util.concurrent.atomic.AtomicLong();
+
+    // Імітація мережі: байтів за секунду на одне з'єднання (0 — без обмеження)
+    private volatile long bytesPerSecondPerConnection;
+
+    // Ін'єкція збоїв: наступні N викликів uploadPart завершаться помилкою
+    private final java.util.concurrent.atomic.AtomicInteger failingParts = new java.util.concurrent.atomic.AtomicInteger();
+
+    private final java.util.concurrent.atomic.LongAdder partsUploaded = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder abortedUploads = new java.util.concurrent.atomic.LongAdder();
+
+    public void setBytesPerSecondPerConnection(long bytesPerSecond) {
+        this.bytesPerSecondPerConnection = bytesPerSecond;
+    }
+
+    public void failNextParts(int count) {
+        failingParts.set(count);
+    }
+
+    public long getPartsUploaded() {
+        return partsUploaded.sum();
+    }
+
+    public long getAbortedUploads() {
+        return abortedUploads.sum();
+    }
+
+    public int getPendingUploads() {
+        return uploads.size();
+    }
+
+    public boolean containsObject(String key) {
+        return objects.containsKey(key);
+    }
+
+    @Override
+    public void putObject(String key, ByteBuffer data) throws IOException {
+        objects.put(key, transfer(data));
+    }
+
+    @Override
+    public long getObject(String key, WritableByteChannel target) throws IOException {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            throw new java.nio.file.NoSuchFileException(key);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return data.length;
+    }
+
+    @Override
+    public boolean deleteObject(String key) {
+        return objects.remove(key) != null;
+    }
+
+    @Override
+    public String createMultipartUpload(String key) {
+        String uploadId = key + "#" + uploadIds.incrementAndGet();
+        uploads.put(uploadId, new PendingUpload(key));
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String uploadId, int partNumber, ByteBuffer data) throws IOException {
+        PendingUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new IOException("NoSuchUpload: " + uploadId);
+        }
+        if (failingParts.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            throw new IOException("InternalError: injected failure for part " + partNumber);
+        }
+        byte[] bytes = transfer(data);
+        upload.parts.put(partNumber, bytes);
+        partsUploaded.increment();
+        return Integer.toHexString(java.util.Arrays.hashCode(bytes));
+    }
+
+    @Override
+    public void completeMultipartUpload(String uploadId, java.util.List<String> etags) throws IOException {
+        PendingUpload upload = uploads.remove(uploadId);
+        if (upload == null || upload.parts.size() != etags.size()) {
+            throw new IOException("InvalidPart: " + uploadId);
+        }
+        int total = 0;
+        for (byte[] part : upload.parts.values()) {
+            total += part.length;
+        }
+        byte[] object = new byte[total];
+        int offset = 0;
+        for (byte[] part : upload.parts.values()) {
+            System.arraycopy(part, 0, object, offset, part.length);
+            offset += part.length;
+        }
+        objects.put(upload.key, object);
+    }
+
+    @Override
+    public void abortMultipartUpload(String uploadId) {
+        if (uploads.remove(uploadId) != null) {
+            abortedUploads.increment();
+        }
+    }
+
+    // Копіює дані та витримує час, потрібний для передачі з обмеженою швидкістю
+    private byte[] transfer(ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        long rate = bytesPerSecondPerConnection;
+        if (rate > 0) {
+            try {
+                Thread.sleep(bytes.length * 1000L / rate);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Передачу перервано");
+            }
+        }
+        return bytes;
+    }
+
+    private static final class PendingUpload {
+        private final String key;
+        private final java.util.concurrent.ConcurrentSkipListMap<Integer, byte[]> parts =
+                new java.util.concurrent.ConcurrentSkipListMap<>();
+
+        PendingUpload(String key) {
+            this.key = key;
+        }
+    }
+}
+
+// Рушій multipart-завантаження: ділить об'єкт на частини й відправляє їх паралельно,
+// тримаючи в польоті не більше maxInFlight частин. Кожна частина має власні повтори,
+// а при остаточній помилці завантаження скасовується через abortMultipartUpload.
+class MultipartUploader implements AutoCloseable {
+
+    // Обмеження S3 на кількість частин одного об'єкта
+    static final int MAX_PARTS = 10_000;
+
+    private final long partSize;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final java.util.concurrent.ThreadPoolExecutor executor;
+
+    // Пул буферів частин: пам'ять обмежена partSize * maxInFlight незалежно від розміру файлу
+    private final java.util.concurrent.BlockingQueue<ByteBuffer> buffers;
+
+    // Кількість уже виділених буферів пулу (під монітором this)
+    private int allocatedBuffers;
+
+    public MultipartUploader(long partSize, int maxInFlight, int maxRetries) {
+        if (partSize <= 0 || partSize > Integer.MAX_VALUE || maxInFlight <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("Недопустимі параметри multipart-завантаження");
+        }
+        this.partSize = partSize;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.buffers = new java.util.concurrent.ArrayBlockingQueue<>(maxInFlight);
+        this.executor = new java.util.concurrent.ThreadPoolExecutor(maxInFlight, maxInFlight,
+                30, java.util.concurrent.TimeUnit.SECONDS, new java.util.concurrent.LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "s3-multipart");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Завантаження файлу: частини читаються позиційно у робочих потоках
+    public long upload(S3Client client, String key, FileChannel file) throws IOException {
+        long start = file.position();
+        long size = file.size() - start;
+        if (size <= partSize) {
+            return putSingle(client, key, file, start, size);
+        }
+        long partCount = (size + partSize - 1) / partSize;
+        if (partCount > MAX_PARTS) {
+            throw new IllegalArgumentException("Файл потребує " + partCount + " частин, S3 дозволяє " + MAX_PARTS);
+        }
+        UploadState state = new UploadState(client, client.createMultipartUpload(key), (int) partCount);
+        try {
+            for (int i = 0; i < partCount && !state.failed(); i++) {
+                int partNumber = i + 1;
+                long offset = start + i * partSize;
+                int length = (int) Math.min(partSize, size - i * partSize);
+                ByteBuffer buffer = acquireBuffer(state);
+                submit(buffer, () -> {
+                    try {
+                        readFully(file, buffer, offset, length);
+                        uploadPart(state, partNumber, buffer);
+                    } catch (IOException e) {
+                        state.fail(e);
+                    } catch (RuntimeException | Error e) {
+                        failUnchecked(state, partNumber, e);
+                    } finally {
+                        releaseBuffer(buffer);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // finish() скасує завантаження, щоб частини не лишились у S3
+            state.fail(e);
+        }
+        finish(state);
+        file.position(start + size);
+        return size;
+    }
+
+    // Завантаження довільного каналу: читання послідовне, відправка паралельна
+    public long upload(S3Client client, String key, ReadableByteChannel source) throws IOException {
+        ByteBuffer first = acquireBuffer(null);
+        boolean more = false;
+        try {
+            more = fill(source, first);
+            if (!more) {
+                long length = first.flip().remaining();
+                client.putObject(key, first);
+                return length;
+            }
+        } finally {
+            if (!more) {
+                releaseBuffer(first);
+            }
+        }
+        UploadState state = new UploadState(client, client.createMultipartUpload(key), -1);
+        long total = 0;
+        int partNumber = 0;
+        // Буфер, який ще не передано робочому потоку; звільняється тут при помилці
+        ByteBuffer buffer = first;
+        try {
+            while (buffer != null && !state.failed()) {
+                buffer.flip();
+                total += buffer.remaining();
+                if (++partNumber > MAX_PARTS) {
+                    throw new IOException("Об'єкт перевищує " + MAX_PARTS + " частин по " + partSize + " байтів");
+                }
+                int number = partNumber;
+                ByteBuffer part = buffer;
+                state.partSubmitted();
+                buffer = null;
+                submit(part, () -> {
+                    try {
+                        uploadPart(state, number, part);
+                    } catch (IOException e) {
+                        state.fail(e);
+                    } catch (RuntimeException | Error e) {
+                        failUnchecked(state, number, e);
+                    } finally {
+                        releaseBuffer(part);
+                    }
+                });
+                if (!more) {
+                    break;
+                }
+                buffer = acquireBuffer(state);
+                more = fill(source, buffer);
+                if (buffer.position() == 0) {
+                    releaseBuffer(buffer);
+                    buffer = null;
+                }
+            }
+        } catch (IOException e) {
+            state.fail(e);
+        } finally {
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+        }
+        finish(state);
+        return total;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // Невеликий файл іде одним запитом через буфер із того ж пулу
+    private long putSingle(S3Client client, String key, FileChannel file, long start, long size) throws IOException {
+        ByteBuffer buffer = acquireBuffer(null);
+        try {
+            readFully(file, buffer, start, (int) size);
+            client.putObject(key, buffer);
+        } finally {
+            releaseBuffer(buffer);
+        }
+        file.position(start + size);
+        return size;
+    }
+
+    // Передає частину робочому потоку; якщо виконавець уже закрито, буфер повертається в пул
+    private void submit(ByteBuffer buffer, Runnable task) throws IOException {
+        try {
+            executor.execute(task);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            releaseBuffer(buffer);
+            throw new IOException("Завантажувач закрито", e);
+        }
+    }
+
+    // Непровірений виняток клієнта теж мусить звільнити учасника Phaser, інакше
+    // finish() чекатиме вічно і завантаження не буде скасовано
+    private static void failUnchecked(UploadState state, int partNumber, Throwable e) {
+        state.fail(new IOException("Частина " + partNumber + " завершилась помилкою", e));
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+
+    private void uploadPart(UploadState state, int partNumber, ByteBuffer data) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            if (state.failed()) {
+                return;
+            }
+            try {
+                state.completed(partNumber, state.client.uploadPart(state.uploadId, partNumber, data.duplicate()));
+                return;
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    // Чекає на всі частини, після чого завершує або скасовує завантаження
+    private void finish(UploadState state) throws IOException {
+        try {
+            state.awaitParts();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state.fail(new java.io.InterruptedIOException("Завантаження перервано"));
+        }
+        if (state.failed()) {
+            state.client.abortMultipartUpload(state.uploadId);
+            throw new IOException("Multipart-завантаження " + state.uploadId + " скасовано", state.error);
+        }
+        state.client.completeMultipartUpload(state.uploadId, state.etags());
+    }
+
+    // state == null, поки завантаження ще не створене
+    private ByteBuffer acquireBuffer(UploadState state) throws IOException {
+        try {
+            ByteBuffer buffer = buffers.poll();
+            if (buffer == null) {
+                synchronized (this) {
+                    if (allocatedBuffers < maxInFlight) {
+                        allocatedBuffers++;
+                        return ByteBuffer.allocateDirect((int) partSize);
+                    }
+                }
+                // Усі буфери виділено, і кожен повертається у finally своєї частини,
+                // тож блокуємось до звільнення; нових частин у польоті не з'являється
+                buffer = buffers.take();
+            }
+            if (state != null && state.failed()) {
+                releaseBuffer(buffer);
+                throw new IOException("Завантаження вже завершилось помилкою", state.error);
+            }
+            return buffer.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Завантаження перервано");
+        }
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long offset, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, offset + buffer.position()) < 0) {
+                throw new java.io.EOFException("Файл скоротився під час завантаження");
+            }
+        }
+        buffer.flip();
+    }
+
+    // Заповнює буфер з каналу; повертає false, якщо канал вичерпано
+    private static boolean fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep((50L << Math.min(attempt, 6)) + java.util.concurrent.ThreadLocalRandom.current().nextInt(25));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Повтор перервано");
+        }
+    }
+
+    // Стан одного завантаження, спільний для всіх його частин
+    private static final class UploadState {
+        private final S3Client client;
+        private final String uploadId;
+        private final java.util.concurrent.ConcurrentSkipListMap<Integer, String> etags =
+                new java.util.concurrent.ConcurrentSkipListMap<>();
+        private final java.util.concurrent.Phaser pending = new java.util.concurrent.Phaser(1);
+        private volatile IOException error;
+
+        UploadState(S3Client client, String uploadId, int knownParts) {
+            this.client = client;
+            this.uploadId = uploadId;
+            if (knownParts > 0) {
+                pending.bulkRegister(knownParts);
+            }
+        }
+
+        void partSubmitted() {
+            pending.register();
+        }
+
+        void completed(int partNumber, String etag) {
+            etags.put(partNumber, etag);
+            pending.arriveAndDeregister();
+        }
+
+        synchronized void fail(IOException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+            pending.forceTermination();
+        }
+
+        boolean failed() {
+            return error != null;
+        }
+
+        void awaitParts() throws InterruptedException {
+            pending.awaitAdvanceInterruptibly(pending.arrive());
+        }
+
+        java.util.List<String> etags() {
+            return new java.util.ArrayList<>(etags.values());
+        }
+    }
+}
+
+// Дворівневе сховище: гарячий локальний диск перед холодним S3.
+// Усі записи йдуть у холодний рівень, тож він завжди має повну копію. Файли, до яких
+// часто звертаються, копіюються на диск; фонова задача згасає лічильники звернень
+// і витісняє з диска охололі файли, тримаючи його в межах бюджету байтів.
+class TieredStorage implements IStreamingStorage, AutoCloseable {
+
+    private final LocalDiskStorage hot;
+    private final IStreamingStorage cold;
+    private final long hotCapacityBytes;
+    private final int promoteThreshold;
+
+    private final java.util.concurrent.ConcurrentMap<String, FileStats> stats =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final java.util.concurrent.atomic.AtomicLong hotBytes = new java.util.concurrent.atomic.AtomicLong();
+    private final java.util.concurrent.ScheduledExecutorService background;
+
+    public TieredStorage(LocalDiskStorage hot, IStreamingStorage cold, long hotCapacityBytes,
+                         int promoteThreshold, java.time.Duration rebalancePeriod) {
+        this.hot = hot;
+        this.cold = cold;
+        this.hotCapacityBytes = hotCapacityBytes;
+        this.promoteThreshold = promoteThreshold;
+        this.background = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tiered-storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = rebalancePeriod.toMillis();
+        background.scheduleWithFixedDelay(this::rebalance, period, period, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void uploadFile(String fileName) {
+        dropHotCopy(fileName);
+        try {
+            cold.uploadFile(fileName);
+        } finally {
+            dropHotCopy(fileName);
+        }
+    }
+
+    @Override
+    public void downloadFile(String fileName) {
+        if (recordAccess(fileName).hot) {
+            hot.downloadFile(fileName);
+        } else {
+            cold.downloadFile(fileName);
+        }
+    }
+
+    @Override
+    public long uploadFile(String fileName, ReadableByteChannel source) throws IOException {
+        // Стара гаряча копія стає неактуальною; файл повернеться на диск, коли знову стане гарячим.
+        // Читач під час запису ще бачить старий холодний вміст і може просунути його на диск,
+        // тому після запису версія змінюється вдруге, а така копія відкидається
+        dropHotCopy(fileName);
+        try {
+            return cold.uploadFile(fileName, source);
+        } finally {
+            dropHotCopy(fileName);
+        }
+    }
+
+    @Override
+    public long downloadFile(String fileName, WritableByteChannel target) throws IOException {
+        FileStats fileStats = recordAccess(fileName);
+        if (fileStats.hot) {
+            try {
+                return hot.downloadFile(fileName, target);
+            } catch (java.nio.file.NoSuchFileException e) {
+                // Файл щойно витіснено з диска; холодний рівень має копію
+            }
+        }
+        long size = cold.downloadFile(fileName, target);
+        maybePromote(fileName, fileStats, size);
+        return size;
+    }
+
+    @Override
+    public void deleteFile(String fileName) {
+        dropHotCopy(fileName);
+        try {
+            cold.deleteFile(fileName);
+        } finally {
+            dropHotCopy(fileName);
+            stats.remove(fileName);
+        }
+    }
+
+    public boolean isHot(String fileName) {
+        FileStats fileStats = stats.get(fileName);
+        return fileStats != null && fileStats.hot;
+    }
+
+    public long getHotBytes() {
+        return hotBytes.get();
+    }
+
+    @Override
+    public void close() {
+        background.shutdownNow();
+    }
+
+    private FileStats recordAccess(String fileName) {
+        FileStats fileStats = stats.computeIfAbsent(fileName, key -> new FileStats());
+        fileStats.accesses.incrementAndGet();
+        return fileStats;
+    }
+
+    // Копіювання на диск виконується у фоні, щоб не затримувати читача
+    private void maybePromote(String fileName, FileStats fileStats, long size) {
+        if (fileStats.accesses.get() < promoteThreshold || hotBytes.get() + size > hotCapacityBytes
+                || !fileStats.promoting.compareAndSet(false, true)) {
+            return;
+        }
+        long version = fileStats.version.get();
+        background.execute(() -> {
+            try {
+                if (hotBytes.addAndGet(size) > hotCapacityBytes) {
+                    hotBytes.addAndGet(-size);
+                    return;
+                }
+                try {
+                    Path path = hot.resolve(fileName);
+                    Files.createDirectories(path.getParent());
+                    long copied = cold.downloadFile(fileName, path);
+                    synchronized (fileStats) {
+                        // Файл перезаписали або видалили під час копіювання: копія застаріла
+                        if (fileStats.version.get() != version || stats.get(fileName) != fileStats) {
+                            hotBytes.addAndGet(-size);
+                            Files.deleteIfExists(path);
+                            return;
+                        }
+                        fileStats.size = copied;
+                        hotBytes.addAndGet(copied - size);
+                        fileStats.hot = true;
+                    }
+                } catch (IOException e) {
+                    hotBytes.addAndGet(-size);
+                }
+            } finally {
+                fileStats.promoting.set(false);
+            }
+        });
+    }
+
+    private void dropHotCopy(String fileName) {
+        FileStats fileStats = stats.get(fileName);
+        if (fileStats != null) {
+            fileStats.version.incrementAndGet();
+            demote(fileName, fileStats);
+        }
+    }
+
+    private void demote(String fileName, FileStats fileStats) {
+        synchronized (fileStats) {
+            if (!fileStats.hot) {
+                return;
+            }
+            // Спершу знімаємо позначку, щоб нові читачі йшли в холодний рівень
+            fileStats.hot = false;
+            hotBytes.addAndGet(-fileStats.size);
+        }
+        try {
+            Files.deleteIfExists(hot.resolve(fileName));
+        } catch (IOException e) {
+            // Залишок на диску буде перезаписано при наступному просуванні
+        }
+    }
+
+    // Згасання частот і витіснення: спершу файли, що охололи нижче порогу,
+    // далі найменш популярні, доки диск не вкладеться в бюджет
+    private void rebalance() {
+        java.util.List<java.util.Map.Entry<String, FileStats>> hotFiles = new java.util.ArrayList<>();
+        for (java.util.Map.Entry<String, FileStats> entry : stats.entrySet()) {
+            FileStats fileStats = entry.getValue();
+            long decayed = fileStats.accesses.updateAndGet(n -> n >> 1);
+            if (fileStats.hot) {
+                if (decayed < promoteThreshold / 2) {
+                    demote(entry.getKey(), fileStats);
+                } else {
+                    hotFiles.add(entry);
+                }
+            } else if (decayed == 0 && !fileStats.promoting.get()) {
+                stats.remove(entry.getKey(), fileStats);
+            }
+        }
+        hotFiles.sort(java.util.Comparator.comparingLong(entry -> entry.getValue().accesses.get()));
+        for (java.util.Map.Entry<String, FileStats> entry : hotFiles) {
+            if (hotBytes.get() <= hotCapacityBytes) {
+                break;
+            }
+            demote(entry.getKey(), entry.getValue());
+        }
+    }
 
-    public static void main(String[] args) {
+    private static final class FileStats {
+        private final java.util.concurrent.atomic.AtomicLong accesses = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicBoolean promoting = new java.util.concurrent.atomic.AtomicBoolean();
+        // Змінюється при кожному перезаписі чи видаленні файлу
+        private final java.util.concurrent.atomic.AtomicLong version = new java.util.concurrent.atomic.AtomicLong();
+        private volatile boolean hot;
+        private volatile long size;
+    }
+}
 
-        // Отримання єдиного екземпляра менеджера сховищ
-        StorageManager manager = StorageManager.getInstance();
+// Асинхронний контракт сховища: кожна операція повертає CompletableFuture
+interface AsyncStorage {
 
-        // Створення користувача та призначення йому локального сховища
-        User user1 = new User("user_01");
-        manager.assignStorageToUser(user1.getUserId(), new LocalDiskStorage());
-        user1.uploadFile("document.txt");
+    java.util.concurrent.CompletableFuture<Void> uploadFile(String fileName);
 
-        // Створення користувача та призначення йому Amazon S3
-        User user2 = new User("user_02");
-        manager.assignStorageToUser(user2.getUserId(), new AmazonS3Storage());
-        user2.downloadFile("photo.png");
+    java.util.concurrent.CompletableFuture<Void> downloadFile(String fileName);
+
+    java.util.concurrent.CompletableFuture<Void> deleteFile(String fileName);
+
+    // Потокові операції; доступні, якщо обгорнуте сховище підтримує IStreamingStorage
+    java.util.concurrent.CompletableFuture<Long> uploadFile(String fileName, Path source);
+
+    java.util.concurrent.CompletableFuture<Long> downloadFile(String fileName, Path target);
+}
+
+// Адаптер, що виконує виклики будь-якого IStorage у фоні. Кожен тип сховища (бекенд)
+// має власне обмеження одночасних викликів; задачі понад ліміт чекають у черзі,
+// не займаючи потоків, тож тисячі операцій не вичерпують пул потоків.
+class AsyncStorageAdapter implements AsyncStorage {
+
+    // Віртуальні потоки, якщо JVM їх підтримує (Java 21+), інакше кешований пул демонів
+    private static final java.util.concurrent.ExecutorService SHARED_EXECUTOR = createExecutor();
+
+    private static final int DEFAULT_BACKEND_LIMIT = 8;
+
+    // Ліміти та обмежувачі, спільні для всіх адаптерів одного бекенда
+    private static final java.util.concurrent.ConcurrentMap<Class<?>, Integer> BACKEND_LIMITS =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private static final java.util.concurrent.ConcurrentMap<Class<?>, ConcurrencyLimiter> LIMITERS =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    static {
+        BACKEND_LIMITS.put(LocalDiskStorage.class, 16);
+        BACKEND_LIMITS.put(AmazonS3Storage.class, 64);
+    }
+
+    private final IStorage delegate;
+    private final ConcurrencyLimiter limiter;
+
+    // Використовує спільний обмежувач бекенда, визначеного класом сховища
+    public AsyncStorageAdapter(IStorage delegate) {
+        this(delegate, limiterFor(InstrumentedStorage.unwrap(delegate).getClass()));
+    }
+
+    public AsyncStorageAdapter(IStorage delegate, ConcurrencyLimiter limiter) {
+        this.delegate = java.util.Objects.requireNonNull(delegate, "delegate");
+        this.limiter = java.util.Objects.requireNonNull(limiter, "limiter");
+    }
+
+    // Задає ліміт для бекенда; діє для обмежувачів, створених після виклику
+    public static void setBackendLimit(Class<? extends IStorage> backend, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency має бути додатним");
+        }
+        BACKEND_LIMITS.put(backend, maxConcurrency);
+    }
+
+    public static ConcurrencyLimiter limiterFor(Class<?> backend) {
+        return LIMITERS.computeIfAbsent(backend, key ->
+                new ConcurrencyLimiter(BACKEND_LIMITS.getOrDefault(key, DEFAULT_BACKEND_LIMIT), SHARED_EXECUTOR));
+    }
+
+    @Override
+    public java.util.concurrent.CompletableFuture<Void> uploadFile(String fileName) {
+        return limiter.submit(() -> {
+            delegate.uploadFile(fileName);
+            return null;
+        });
+    }
+
+    @Override
+    public java.util.concurrent.CompletableFuture<Void> downloadFile(String fileName) {
+        return limiter.submit(() -> {
+            delegate.downloadFile(fileName);
+            return null;
+        });
+    }
+
+    @Override
+    public java.util.concurrent.CompletableFuture<Void> deleteFile(String fileName) {
+        return limiter.submit(() -> {
+            delegate.deleteFile(fileName);
+            return null;
+        });
+    }
+
+    @Override
+    public java.util.concurrent.CompletableFuture<Long> uploadFile(String fileName, Path source) {
+        return limiter.submit(() -> streaming().uploadFile(fileName, source));
+    }
+
+    @Override
+    public java.util.concurrent.CompletableFuture<Long> downloadFile(String fileName, Path target) {
+        return limiter.submit(() -> streaming().downloadFile(fileName, target));
+    }
+
+    private IStreamingStorage streaming() {
+        if (!(delegate instanceof IStreamingStorage)) {
+            throw new UnsupportedOperationException(delegate.getClass().getSimpleName() + " не підтримує потокові операції");
+        }
+        return (IStreamingStorage) delegate;
+    }
+
+    private static java.util.concurrent.ExecutorService createExecutor() {
+        try {
+            return (java.util.concurrent.ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Кількість потоків однаково обмежена сумою лімітів бекендів
+            return java.util.concurrent.Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "async-storage");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 }
 
-// Інтерфейс сховища, який визначає спільний контракт для всіх реалізацій
-interface IStorage {
+// Неблокувальний обмежувач паралельності: не більше maxConcurrency задач виконуються
+// одночасно, решта чекають у черзі без утримання потоку.
+class ConcurrencyLimiter {
 
-    void uploadFile(String fileName);
+    private final int maxConcurrency;
+    private final java.util.concurrent.Executor executor;
+    private final java.util.concurrent.ConcurrentLinkedQueue<Pending<?>> waiting =
+            new java.util.concurrent.ConcurrentLinkedQueue<>();
+    private final java.util.concurrent.atomic.AtomicInteger active = new java.util.concurrent.atomic.AtomicInteger();
 
-    void downloadFile(String fileName);
+    public ConcurrencyLimiter(int maxConcurrency, java.util.concurrent.Executor executor) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency має бути додатним");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.executor = executor;
+    }
 
-    void deleteFile(String fileName);
+    public <T> java.util.concurrent.CompletableFuture<T> submit(java.util.concurrent.Callable<T> task) {
+        Pending<T> pending = new Pending<>(task);
+        waiting.add(pending);
+        drain();
+        return pending.result;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getQueued() {
+        return waiting.size();
+    }
+
+    // Запускає задачі з черги, доки є вільні слоти
+    private void drain() {
+        while (!waiting.isEmpty()) {
+            int current = active.get();
+            if (current >= maxConcurrency) {
+                // Завершення активної задачі повторно викличе drain()
+                return;
+            }
+            if (!active.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Pending<?> task = waiting.poll();
+            if (task == null) {
+                active.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        active.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                // Задачу вже знято з черги: завершуємо її майбутнє, інакше воно висітиме вічно
+                active.decrementAndGet();
+                task.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Задача в черзі разом із майбутнім, яке отримає її результат
+    private static final class Pending<T> implements Runnable {
+        final java.util.concurrent.Callable<T> task;
+        final java.util.concurrent.CompletableFuture<T> result = new java.util.concurrent.CompletableFuture<>();
+
+        Pending(java.util.concurrent.Callable<T> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
 }
 
-// Реалізація сховища для локального диску
-class LocalDiskStorage implements IStorage {
+// Операції сховища, для яких збираються метрики
+enum StorageOperation {
+    UPLOAD, DOWNLOAD, DELETE
+}
+
+// Декоратор, що вимірює кожен виклик IStorage: затримку, байти, помилки, виклики в польоті.
+// Запис метрик не виділяє пам'ять і не бере блокувань.
+class InstrumentedStorage implements IStorage {
+
+    protected final IStorage delegate;
+    private final OperationMetrics upload;
+    private final OperationMetrics download;
+    private final OperationMetrics delete;
+
+    InstrumentedStorage(IStorage delegate, StorageMetrics metrics) {
+        this.delegate = delegate;
+        String backend = delegate.getClass().getSimpleName();
+        this.upload = metrics.forOperation(backend, StorageOperation.UPLOAD);
+        this.download = metrics.forOperation(backend, StorageOperation.DOWNLOAD);
+        this.delete = metrics.forOperation(backend, StorageOperation.DELETE);
+    }
+
+    // Обирає декоратор, що зберігає потокові можливості сховища
+    public static InstrumentedStorage wrap(IStorage storage, StorageMetrics metrics) {
+        if (storage instanceof InstrumentedStorage) {
+            return (InstrumentedStorage) storage;
+        }
+        return storage instanceof IStreamingStorage
+                ? new InstrumentedStreamingStorage((IStreamingStorage) storage, metrics)
+                : new InstrumentedStorage(storage, metrics);
+    }
+
+    // Повертає справжнє сховище під декоратором
+    public static IStorage unwrap(IStorage storage) {
+        return storage instanceof InstrumentedStorage ? ((InstrumentedStorage) storage).delegate : storage;
+    }
+
+    public IStorage getDelegate() {
+        return delegate;
+    }
 
     @Override
     public void uploadFile(String fileName) {
-        System.out.println("Файл " + fileName + " завантажено на локальний диск");
+        long start = upload.begin();
+        boolean ok = false;
+        try {
+            delegate.uploadFile(fileName);
+            ok = true;
+        } finally {
+            upload.end(start, 0, ok);
+        }
     }
 
     @Override
     public void downloadFile(String fileName) {
-        System.out.println("Файл " + fileName + " завантажено з локального диску");
+        long start = download.begin();
+        boolean ok = false;
+        try {
+            delegate.downloadFile(fileName);
+            ok = true;
+        } finally {
+            download.end(start, 0, ok);
+        }
     }
 
     @Override
     public void deleteFile(String fileName) {
-        System.out.println("Файл " + fileName + " видалено з локального диску");
+        long start = delete.begin();
+        boolean ok = false;
+        try {
+            delegate.deleteFile(fileName);
+            ok = true;
+        } finally {
+            delete.end(start, 0, ok);
+        }
+    }
+
+    OperationMetrics upload() {
+        return upload;
+    }
+
+    OperationMetrics download() {
+        return download;
     }
 }
 
-// Реалізація сховища для Amazon S3
-class AmazonS3Storage implements IStorage {
+// Потоковий варіант декоратора; також рахує передані байти
+class InstrumentedStreamingStorage extends InstrumentedStorage implements IStreamingStorage {
+
+    InstrumentedStreamingStorage(IStreamingStorage delegate, StorageMetrics metrics) {
+        super(delegate, metrics);
+    }
 
     @Override
-    public void uploadFile(String fileName) {
-        System.out.println("Файл " + fileName + " завантажено в Amazon S3");
+    public long uploadFile(String fileName, ReadableByteChannel source) throws IOException {
+        long start = upload().begin();
+        long bytes = 0;
+        boolean ok = false;
+        try {
+            bytes = ((IStreamingStorage) delegate).uploadFile(fileName, source);
+            ok = true;
+            return bytes;
+        } finally {
+            upload().end(start, bytes, ok);
+        }
     }
 
     @Override
-    public void downloadFile(String fileName) {
-        System.out.println("Файл " + fileName + " завантажено з Amazon S3");
+    public long downloadFile(String fileName, WritableByteChannel target) throws IOException {
+        long start = download().begin();
+        long bytes = 0;
+        boolean ok = false;
+        try {
+            bytes = ((IStreamingStorage) delegate).downloadFile(fileName, target);
+            ok = true;
+            return bytes;
+        } finally {
+            download().end(start, bytes, ok);
+        }
+    }
+}
+
+// Реєстр метрик у розрізі бекенда та операції
+class StorageMetrics {
+
+    private final java.util.concurrent.ConcurrentMap<String, OperationMetrics[]> backends =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    public OperationMetrics forOperation(String backend, StorageOperation operation) {
+        return backends.computeIfAbsent(backend, key -> {
+            OperationMetrics[] metrics = new OperationMetrics[StorageOperation.values().length];
+            for (StorageOperation op : StorageOperation.values()) {
+                metrics[op.ordinal()] = new OperationMetrics(key, op);
+            }
+            return metrics;
+        })[operation.ordinal()];
+    }
+
+    // Знімок усіх метрик для зовнішнього збирача
+    public java.util.List<OperationSnapshot> snapshot() {
+        java.util.List<OperationSnapshot> result = new java.util.ArrayList<>();
+        for (OperationMetrics[] metrics : backends.values()) {
+            for (OperationMetrics operation : metrics) {
+                result.add(operation.snapshot());
+            }
+        }
+        result.sort(java.util.Comparator.comparing(OperationSnapshot::getBackend)
+                .thenComparing(OperationSnapshot::getOperation));
+        return result;
     }
+}
+
+// Лічильники однієї операції одного бекенда
+class OperationMetrics {
+
+    private final String backend;
+    private final StorageOperation operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final java.util.concurrent.atomic.LongAdder bytes = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder errors = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder inFlight = new java.util.concurrent.atomic.LongAdder();
+
+    OperationMetrics(String backend, StorageOperation operation) {
+        this.backend = backend;
+        this.operation = operation;
+    }
+
+    long begin() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    void end(long start, long transferred, boolean ok) {
+        latency.record(System.nanoTime() - start);
+        inFlight.decrement();
+        if (transferred > 0) {
+            bytes.add(transferred);
+        }
+        if (!ok) {
+            errors.increment();
+        }
+    }
+
+    OperationSnapshot snapshot() {
+        long[] counts = latency.counts();
+        return new OperationSnapshot(backend, operation, LatencyHistogram.total(counts), errors.sum(), bytes.sum(),
+                inFlight.sum(), LatencyHistogram.percentile(counts, 0.50),
+                LatencyHistogram.percentile(counts, 0.99), LatencyHistogram.percentile(counts, 0.999));
+    }
+}
+
+// Незмінний знімок метрик операції; затримки в наносекундах
+class OperationSnapshot {
+
+    private final String backend;
+    private final StorageOperation operation;
+    private final long count;
+    private final long errors;
+    private final long bytes;
+    private final long inFlight;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+
+    OperationSnapshot(String backend, StorageOperation operation, long count, long errors, long bytes,
+                      long inFlight, long p50, long p99, long p999) {
+        this.backend = backend;
+        this.operation = operation;
+        this.count = count;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.inFlight = inFlight;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+    }
+
+    public String getBackend() { return backend; }
+    public StorageOperation getOperation() { return operation; }
+    public long getCount() { return count; }
+    public long getErrors() { return errors; }
+    public long getBytes() { return bytes; }
+    public long getInFlight() { return inFlight; }
+    public long getP50Nanos() { return p50; }
+    public long getP99Nanos() { return p99; }
+    public long getP999Nanos() { return p999; }
 
     @Override
-    public void deleteFile(String fileName) {
-        System.out.println("Файл " + fileName + " видалено з Amazon S3");
+    public String toString() {
+        return String.format("%s.%s count=%d errors=%d bytes=%d inFlight=%d p50=%.1fus p99=%.1fus p999=%.1fus",
+                backend, operation, count, errors, bytes, inFlight, p50 / 1e3, p99 / 1e3, p999 / 1e3);
+    }
+}
+
+// Лог-лінійна гістограма затримок: 8 піддіапазонів на кожен степінь двійки (похибка до 12.5%).
+// Лічильники розбиті на смуги за потоком, тож одночасні записи майже не конкурують.
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Значення понад 2^40 нс (~18 хв) потрапляють в останній кошик
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(1, Math.min(64, Runtime.getRuntime().availableProcessors())) * 2 - 1);
+
+    private final java.util.concurrent.atomic.AtomicLongArray counts =
+            new java.util.concurrent.atomic.AtomicLongArray(STRIPES * BUCKETS);
+
+    public void record(long nanos) {
+        int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 40) & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + bucket(nanos));
+    }
+
+    // Сумує смуги; результат придатний для percentile()/total()
+    public long[] counts() {
+        long[] result = new long[BUCKETS];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                result[bucket] += counts.get(stripe * BUCKETS + bucket);
+            }
+        }
+        return result;
+    }
+
+    static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Повертає верхню межу кошика, у який потрапляє заданий квантиль
+    static long percentile(long[] counts, double quantile) {
+        long total = total(counts);
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return upperBound(bucket);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
     }
 }
 
 // Клас користувача, який працює зі сховищем через StorageManager
-class User {
+class User implements StorageAssignmentListener {
 
     private String userId;
 
-    // Конструктор користувача
+    // Прив'язаний дескриптор сховища; оновлюється менеджером при перепризначенні
+    private volatile IStorage storage;
+
+    // Конструктор користувача; сховище береться з реєстру менеджера при кожній операції
     public User(String userId) {
         this.userId = userId;
     }
 
+    // Створює користувача, підписаного на зміни свого сховища. Підписка
+    // відбувається після конструктора, а менеджер тримає слухача через слабке
+    // посилання, тому непотрібні користувачі не накопичуються в одинаку
+    public static User bind(String userId) {
+        User user = new User(userId);
+        StorageManager.getInstance().bindUser(userId, user);
+        return user;
+    }
+
     // Повертає ідентифікатор користувача
     public String getUserId() {
         return userId;
     }
 
+    // Викликається менеджером при призначенні, перепризначенні або знятті сховища
+    @Override
+    public void onStorageAssigned(String userId, IStorage storage) {
+        this.storage = storage;
+    }
+
     // Завантаження файлу у призначене користувачу сховище
     public void uploadFile(String fileName) {
-        StorageManager.getInstance()
-                .getStorageForUser(userId)
-                .uploadFile(fileName);
+        requireStorage().uploadFile(fileName);
     }
 
     // Отримання файлу зі сховища
     public void downloadFile(String fileName) {
-        StorageManager.getInstance()
-                .getStorageForUser(userId)
-                .downloadFile(fileName);
+        requireStorage().downloadFile(fileName);
     }
 
     // Видалення файлу зі сховища
     public void deleteFile(String fileName) {
-        StorageManager.getInstance()
-                .getStorageForUser(userId)
-                .deleteFile(fileName);
+        requireStorage().deleteFile(fileName);
+    }
+
+    // Повертає прив'язане сховище; без підписки звертається до реєстру менеджера
+    private IStorage requireStorage() {
+        IStorage current = storage;
+        if (current == null) {
+            current = StorageManager.getInstance().getStorageForUser(userId);
+        }
+        if (current == null) {
+            throw new IllegalStateException("Користувачу " + userId + " не призначено сховище");
+        }
+        return current;
     }
 }
 
+// Слухач змін призначення сховища для конкретного користувача
+interface StorageAssignmentListener {
+
+    // storage == null означає, що сховище знято з користувача
+    void onStorageAssigned(String userId, IStorage storage);
+}
+
 // Клас-Одинак, який централізовано керує сховищами
 class StorageManager {
 
     // Єдиний екземпляр класу (volatile для багатопотокової безпеки)
     private static volatile StorageManager instance;
 
-    // Зв'язок між користувачем та його сховищем
-    private java.util.Map<String, IStorage> userStorageMap = new java.util.HashMap<>();
+    // Зв'язок між користувачем та його сховищем (читання без блокувань)
+    private final java.util.concurrent.ConcurrentMap<String, IStorage> userStorageMap =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    // Метрики всіх призначених сховищ; кожне сховище обгортається автоматично
+    private final StorageMetrics metrics = new StorageMetrics();
+
+    // Підписники на зміни сховища кожного користувача
+    private final java.util.concurrent.ConcurrentMap<String, Subscribers> listeners =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    // Сюди потрапляють посилання на слухачів, зібраних збирачем сміття
+    private final java.lang.ref.ReferenceQueue<StorageAssignmentListener> collected =
+            new java.lang.ref.ReferenceQueue<>();
 
     // Приватний конструктор забороняє створення екземплярів через new
     private StorageManager() {
@@ -130,13 +2268,267 @@ class StorageManager {
         return instance;
     }
 
-    // Призначає сховище конкретному користувачу
-    public void assignStorageToUser(String userId, IStorage storage) {
-        userStorageMap.put(userId, storage);
+    // Призначає сховище конкретному користувачу та повертає попереднє
+    public IStorage assignStorageToUser(String userId, IStorage storage) {
+        IStorage instrumented = InstrumentedStorage.wrap(java.util.Objects.requireNonNull(storage, "storage"), metrics);
+        IStorage previous = userStorageMap.put(userId, instrumented);
+        notifyListeners(userId);
+        return previous;
+    }
+
+    // Атомарно замінює сховище, лише якщо зараз призначене очікуване
+    public boolean reassignStorage(String userId, IStorage expected, IStorage storage) {
+        IStorage instrumented = InstrumentedStorage.wrap(java.util.Objects.requireNonNull(storage, "storage"), metrics);
+        boolean[] replaced = new boolean[1];
+        userStorageMap.computeIfPresent(userId, (id, current) -> {
+            // expected може бути як обгорткою, так і самим сховищем
+            if (current != expected && InstrumentedStorage.unwrap(current) != expected) {
+                return current;
+            }
+            replaced[0] = true;
+            return instrumented;
+        });
+        if (replaced[0]) {
+            notifyListeners(userId);
+        }
+        return replaced[0];
+    }
+
+    // Знімає сховище з користувача та повертає попереднє
+    public IStorage unassignStorage(String userId) {
+        IStorage previous = userStorageMap.remove(userId);
+        if (previous != null) {
+            notifyListeners(userId);
+        }
+        return previous;
+    }
+
+    // Призначає одне сховище групі користувачів
+    public void assignStorageToUsers(java.util.Collection<String> userIds, IStorage storage) {
+        for (String userId : userIds) {
+            assignStorageToUser(userId, storage);
+        }
+    }
+
+    // Знімає сховища з групи користувачів
+    public void unassignStorageFromUsers(java.util.Collection<String> userIds) {
+        for (String userId : userIds) {
+            unassignStorage(userId);
+        }
+    }
+
+    // Метрики операцій усіх сховищ, призначених через менеджер
+    public StorageMetrics getMetrics() {
+        return metrics;
     }
 
     // Повертає сховище, призначене користувачу
     public IStorage getStorageForUser(String userId) {
         return userStorageMap.get(userId);
     }
+
+    // Підписує слухача та одразу передає йому поточне сховище користувача.
+    // Менеджер тримає слухача через слабке посилання: підписка не продовжує
+    // йому життя, а зібрані слухачі вилучаються при наступних змінах
+    public void bindUser(String userId, StorageAssignmentListener listener) {
+        java.util.Objects.requireNonNull(listener, "listener");
+        expungeCollected();
+        listeners.compute(userId, (id, subscribers) -> {
+            Subscribers result = subscribers != null ? subscribers : new Subscribers();
+            result.refs.add(new ListenerRef(id, listener, collected));
+            return result;
+        });
+        notifyListeners(userId);
+    }
+
+    // Відписує слухача від змін сховища користувача
+    public void unbindUser(String userId, StorageAssignmentListener listener) {
+        listeners.computeIfPresent(userId, (id, subscribers) -> {
+            subscribers.refs.removeIf(ref -> {
+                StorageAssignmentListener target = ref.get();
+                return target == null || target == listener;
+            });
+            return subscribers.refs.isEmpty() ? null : subscribers;
+        });
+    }
+
+    // Повідомляє слухачів поза блокуваннями мапи. Доставку для користувача
+    // виконує один потік за раз: хто застав лічильник ненульовим, лише
+    // збільшує його, а поточний доставник повторює обхід зі свіжим значенням.
+    // Проміжні призначення можуть бути пропущені, але останнім слухач
+    // завжди отримує актуальне сховище. Виняток слухача не зупиняє доставку
+    // іншим і кидається після обходу
+    private void notifyListeners(String userId) {
+        expungeCollected();
+        Subscribers subscribers = listeners.get(userId);
+        if (subscribers == null || subscribers.pending.getAndIncrement() != 0) {
+            return;
+        }
+        RuntimeException failure = null;
+        int missed = 1;
+        try {
+            do {
+                IStorage storage = userStorageMap.get(userId);
+                for (ListenerRef ref : subscribers.refs) {
+                    StorageAssignmentListener listener = ref.get();
+                    if (listener == null) {
+                        continue;
+                    }
+                    try {
+                        listener.onStorageAssigned(userId, storage);
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+                missed = subscribers.pending.addAndGet(-missed);
+            } while (missed != 0);
+        } finally {
+            if (missed != 0) {
+                // Обхід перервала Error: звільняємо доставку, інакше сповіщення
+                // цього користувача більше ніколи не дійдуть
+                subscribers.pending.set(0);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Вилучає посилання на слухачів, яких уже зібрав збирач сміття
+    private void expungeCollected() {
+        java.lang.ref.Reference<? extends StorageAssignmentListener> polled;
+        while ((polled = collected.poll()) != null) {
+            ListenerRef stale = (ListenerRef) polled;
+            listeners.computeIfPresent(stale.userId, (id, subscribers) -> {
+                subscribers.refs.remove(stale);
+                return subscribers.refs.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    // Слухачі одного користувача та лічильник незавершених сповіщень
+    private static final class Subscribers {
+        final java.util.List<ListenerRef> refs = new java.util.concurrent.CopyOnWriteArrayList<>();
+        final java.util.concurrent.atomic.AtomicInteger pending = new java.util.concurrent.atomic.AtomicInteger();
+    }
+
+    // Слабке посилання на слухача, яке пам'ятає свого користувача
+    private static final class ListenerRef extends java.lang.ref.WeakReference<StorageAssignmentListener> {
+        final String userId;
+
+        ListenerRef(String userId, StorageAssignmentListener listener,
+                    java.lang.ref.ReferenceQueue<StorageAssignmentListener> queue) {
+            super(listener, queue);
+            this.userId = userId;
+        }
+    }
+}
+
+// Порівняння потокового API з копіюванням через InputStream і масив байтів.
+// Запуск: java -cp <out> StreamingCopyBenchmark [розмір у МБ]
+class StreamingCopyBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        Path workDir = Files.createTempDirectory("storage-bench");
+        Path source = workDir.resolve("source.bin");
+        Path copy = workDir.resolve("copy.bin");
+        writeSample(source, sizeMb);
+
+        LocalDiskStorage storage = new LocalDiskStorage(workDir.resolve("store"));
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            storage.uploadFile("data.bin", source);
+            storage.downloadFile("data.bin", copy);
+            long channelNanos = System.nanoTime() - t0;
+
+            long t1 = System.nanoTime();
+            streamCopy(source, storage.resolve("data.bin"));
+            streamCopy(storage.resolve("data.bin"), copy);
+            long streamNanos = System.nanoTime() - t1;
+
+            System.out.printf("round %d: transferTo/transferFrom %.1f MB/s, InputStream %.1f MB/s%n",
+                    round, throughput(sizeMb * 2L, channelNanos), throughput(sizeMb * 2L, streamNanos));
+        }
+
+        storage.deleteFile("data.bin");
+        Files.deleteIfExists(copy);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(workDir.resolve("store"));
+        Files.deleteIfExists(workDir);
+    }
+
+    private static void streamCopy(Path from, Path to) throws IOException {
+        try (InputStream in = Files.newInputStream(from); OutputStream out = Files.newOutputStream(to)) {
+            in.transferTo(out);
+        }
+    }
+
+    private static void writeSample(Path path, int sizeMb) throws IOException {
+        java.nio.ByteBuffer block = java.nio.ByteBuffer.allocateDirect(1024 * 1024);
+        new java.util.Random(42).ints(block.capacity() / 4).forEach(block::putInt);
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (int i = 0; i < sizeMb; i++) {
+                block.clear();
+                while (block.hasRemaining()) {
+                    out.write(block);
+                }
+            }
+        }
+    }
+
+    private static double throughput(long megabytes, long nanos) {
+        return megabytes / (nanos / 1e9);
+    }
+}
+
+// Порівняння послідовного та паралельного multipart-завантаження на заглушці S3
+// з обмеженою пропускною здатністю з'єднання та ін'єкцією збоїв.
+// Запуск: java -cp <out> MultipartUploadBenchmark [розмір у МБ]
+class MultipartUploadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        Path source = Files.createTempFile("multipart", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new java.util.Random(7).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (int i = 0; i < sizeMb; i++) {
+                out.write(block);
+            }
+        }
+
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        s3.setBytesPerSecondPerConnection(64L * 1024 * 1024);
+        for (int inFlight : new int[] {1, 4, 16}) {
+            try (MultipartUploader uploader = new MultipartUploader(4L * 1024 * 1024, inFlight, 3)) {
+                AmazonS3Storage storage = new AmazonS3Storage(s3, uploader);
+                long t0 = System.nanoTime();
+                storage.uploadFile("bench.bin", source);
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("parts in flight %2d: %.1f MB/s%n", inFlight, sizeMb / seconds);
+            }
+        }
+
+        // Збої окремих частин повторюються, а вичерпані повтори скасовують завантаження
+        try (MultipartUploader uploader = new MultipartUploader(4L * 1024 * 1024, 8, 2)) {
+            AmazonS3Storage storage = new AmazonS3Storage(s3, uploader);
+            s3.failNextParts(2);
+            storage.uploadFile("retried.bin", source);
+            System.out.println("Після 2 збоїв об'єкт завантажено: " + s3.containsObject("retried.bin"));
+            s3.failNextParts(1000);
+            try {
+                storage.uploadFile("aborted.bin", source);
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + "; скасовано завантажень: " + s3.getAbortedUploads()
+                        + ", незавершених: " + s3.getPendingUploads());
+            }
+            s3.failNextParts(0);
+        }
+        Files.delete(source);
+    }
 }
@@ -1,3 +1,7 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 // Лабораторна робота №2
 // Тема: Патерн проектування "Фабричний метод"
 
@@ -16,6 +20,41 @@ public class FactoryMethodSocialMediaDemo {
                 new LinkedInFactory("user@email.com", "user_password");
         SocialNetwork linkedIn = linkedInFactory.createSocialNetwork();
         linkedIn.postMessage("Hello LinkedIn!");
+
+        // Сесії з пулу: вхід виконується один раз, далі сесія перевикористовується
+        for (int i = 1; i <= 3; i++) {
+            try (PooledSession session = facebookFactory.acquireSession()) {
+                session.postMessage("Pooled post #" + i);
+            }
+        }
+        System.out.println("Facebook logins: " + facebookFactory.sessionPool().getLogins());
+
+        // Паралельна розсилка з окремим лімітом частоти для кожної мережі
+        PostBroadcaster broadcaster = new PostBroadcaster(5, 5, java.time.Duration.ofSeconds(10))
+                .register(linkedIn, new TokenBucket(1, 1), java.time.Duration.ofSeconds(2));
+        java.util.Map<SocialNetwork, PostOutcome> outcomes =
+                broadcaster.broadcast("Big announcement!", java.util.List.of(facebook, linkedIn));
+        outcomes.forEach((network, outcome) ->
+                System.out.println(network.getClass().getSimpleName() + ": " + outcome));
+
+        // Публікації через журнал: переживають падіння процесу до моменту доставки
+        try {
+            Path outboxDir = java.nio.file.Files.createTempDirectory("outbox");
+            try (PostOutbox outbox = new PostOutbox(outboxDir, 64L * 1024 * 1024)) {
+                outbox.register("facebook", facebook).register("linkedin", linkedIn);
+                java.util.concurrent.CompletableFuture.allOf(
+                        outbox.enqueue("launch-fb", "facebook", "Durable hello!"),
+                        outbox.enqueue("launch-in", "linkedin", "Durable hello!"),
+                        outbox.enqueue("launch-fb", "facebook", "Durable hello!")).join();
+                while (outbox.getPending() > 0) {
+                    Thread.sleep(10);
+                }
+            }
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
 
@@ -40,6 +79,7 @@ class Facebook implements SocialNetwork {
 
     @Override
     public boolean authenticate() {
+        System.out.println("Facebook login: " + login);
         return true;
     }
 
@@ -62,6 +102,7 @@ class LinkedIn implements SocialNetwork {
 
     @Override
     public boolean authenticate() {
+        System.out.println("LinkedIn login: " + email);
         return true;
     }
 
@@ -74,7 +115,36 @@ class LinkedIn implements SocialNetwork {
 // Абстрактний творець
 abstract class SocialNetworkFactory {
 
+    // Пул сесій створюється при першій видачі
+    private volatile SessionPool sessionPool;
+
     public abstract SocialNetwork createSocialNetwork();
+
+    // Видає вже автентифіковану сесію з пулу; поверніть її через close()
+    public PooledSession acquireSession() {
+        return sessionPool().acquire(java.time.Duration.ofSeconds(30));
+    }
+
+    // Налаштовує пул до першої видачі сесії
+    public synchronized void configureSessionPool(int maxSize, java.time.Duration ttl, java.time.Duration refreshAhead) {
+        if (sessionPool != null) {
+            throw new IllegalStateException("Пул сесій уже створено");
+        }
+        sessionPool = new SessionPool(this, maxSize, ttl, refreshAhead);
+    }
+
+    public SessionPool sessionPool() {
+        SessionPool pool = sessionPool;
+        if (pool == null) {
+            synchronized (this) {
+                if (sessionPool == null) {
+                    sessionPool = new SessionPool(this, 8, java.time.Duration.ofMinutes(30), java.time.Duration.ofMinutes(5));
+                }
+                pool = sessionPool;
+            }
+        }
+        return pool;
+    }
 }
 
 // Конкретна фабрика Facebook
@@ -110,3 +180,790 @@ class LinkedInFactory extends SocialNetworkFactory {
         return new LinkedIn(email, password);
     }
 }
+
+// Пул уже автентифікованих сесій однієї фабрики.
+// Сесія живе ttl від моменту входу; фонова задача заздалегідь оновлює простоюючі сесії,
+// а повторний вхід для сесії завжди виконується одним викликом (single-flight),
+// навіть якщо його одночасно потребують кілька потоків.
+class SessionPool implements AutoCloseable {
+
+    private final SocialNetworkFactory factory;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+
+    // Обмежує кількість виданих сесій; не більше maxSize логінів живуть одночасно
+    private final java.util.concurrent.Semaphore permits;
+    // Простоюючі сесії; LIFO, щоб частіше використовувати "теплі"
+    private final java.util.concurrent.ConcurrentLinkedDeque<SessionEntry> idle =
+            new java.util.concurrent.ConcurrentLinkedDeque<>();
+    private final java.util.concurrent.ScheduledExecutorService refresher;
+    private final java.util.concurrent.atomic.LongAdder logins = new java.util.concurrent.atomic.LongAdder();
+
+    public SessionPool(SocialNetworkFactory factory, int maxSize, java.time.Duration ttl, java.time.Duration refreshAhead) {
+        if (maxSize <= 0 || refreshAhead.compareTo(ttl) >= 0) {
+            throw new IllegalArgumentException("Недопустимі параметри пулу сесій");
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.refreshAheadNanos = refreshAhead.toNanos();
+        this.permits = new java.util.concurrent.Semaphore(maxSize, true);
+        this.refresher = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, refreshAhead.toMillis() / 2);
+        refresher.scheduleWithFixedDelay(this::refreshIdle, period, period, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    // Видає автентифіковану сесію; її треба повернути через close()
+    public PooledSession acquire(java.time.Duration timeout) {
+        try {
+            if (!permits.tryAcquire(timeout.toNanos(), java.util.concurrent.TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException("Усі " + maxSize + " сесій зайняті");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Очікування сесії перервано", e);
+        }
+        try {
+            SessionEntry entry = idle.pollFirst();
+            if (entry == null) {
+                entry = new SessionEntry(factory.createSocialNetwork());
+            }
+            ensureFresh(entry, 0);
+            return new PooledSession(this, entry);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public long getLogins() {
+        return logins.sum();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        idle.clear();
+    }
+
+    void release(SessionEntry entry) {
+        if (System.nanoTime() - entry.expiresAt < 0) {
+            idle.offerFirst(entry);
+        }
+        permits.release();
+    }
+
+    // Повторно входить, якщо сесія прострочиться протягом margin наносекунд
+    void ensureFresh(SessionEntry entry, long margin) {
+        if (entry.expiresAt - System.nanoTime() > margin) {
+            return;
+        }
+        java.util.concurrent.CompletableFuture<Void> login = new java.util.concurrent.CompletableFuture<>();
+        java.util.concurrent.CompletableFuture<Void> inFlight = entry.login.compareAndExchange(null, login);
+        if (inFlight != null) {
+            // Вхід уже виконує інший потік — чекаємо на його результат
+            inFlight.join();
+            return;
+        }
+        try {
+            if (entry.expiresAt - System.nanoTime() <= margin) {
+                long start = System.nanoTime();
+                logins.increment();
+                if (!entry.network.authenticate()) {
+                    throw new IllegalStateException("Не вдалося автентифікуватися у " + entry.network.getClass().getSimpleName());
+                }
+                entry.expiresAt = start + ttlNanos;
+            }
+            login.complete(null);
+        } catch (RuntimeException e) {
+            login.completeExceptionally(e);
+            throw e;
+        } finally {
+            entry.login.set(null);
+        }
+    }
+
+    // Оновлює простоюючі сесії, що скоро прострочаться, щоб видача не чекала на вхід
+    private void refreshIdle() {
+        for (SessionEntry entry : idle) {
+            try {
+                ensureFresh(entry, refreshAheadNanos);
+            } catch (RuntimeException e) {
+                // Невдала сесія буде видалена й створена наново при наступній видачі
+                idle.remove(entry);
+            }
+        }
+    }
+
+    static final class SessionEntry {
+        final SocialNetwork network;
+        // Момент System.nanoTime(), після якого потрібен повторний вхід
+        volatile long expiresAt = System.nanoTime();
+        final java.util.concurrent.atomic.AtomicReference<java.util.concurrent.CompletableFuture<Void>> login =
+                new java.util.concurrent.atomic.AtomicReference<>();
+
+        SessionEntry(SocialNetwork network) {
+            this.network = network;
+        }
+    }
+}
+
+// Сесія з пулу: вже автентифікована; close() повертає її в пул
+class PooledSession implements SocialNetwork, AutoCloseable {
+
+    private final SessionPool pool;
+    private final SessionPool.SessionEntry entry;
+    private final java.util.concurrent.atomic.AtomicBoolean closed = new java.util.concurrent.atomic.AtomicBoolean();
+
+    PooledSession(SessionPool pool, SessionPool.SessionEntry entry) {
+        this.pool = pool;
+        this.entry = entry;
+    }
+
+    // Повторний вхід лише тоді, коли сесія прострочена
+    @Override
+    public boolean authenticate() {
+        checkOpen();
+        pool.ensureFresh(entry, 0);
+        return true;
+    }
+
+    @Override
+    public void postMessage(String message) {
+        checkOpen();
+        pool.ensureFresh(entry, 0);
+        entry.network.postMessage(message);
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release(entry);
+        }
+    }
+
+    // Клієнт мережі, з яким пов'язана сесія
+    SocialNetwork delegate() {
+        return entry.network;
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Сесію вже повернуто в пул");
+        }
+    }
+}
+
+// Розсилка одного повідомлення в кілька мереж паралельно.
+// Кожна мережа має власний обмежувач частоти (token bucket) і тайм-аут, тож загальний
+// час визначається найповільнішою мережею, а не сумою всіх.
+class PostBroadcaster {
+
+    // Віртуальні потоки, якщо JVM їх підтримує (Java 21+), інакше кешований пул демонів
+    private static final java.util.concurrent.ExecutorService EXECUTOR = createExecutor();
+
+    // Ліміти належать провайдеру, а не екземпляру клієнта: сесії з пулу й нові клієнти
+    // однієї мережі ділять обмежувач, а мапа не росте з кожним екземпляром
+    private final java.util.Map<Class<? extends SocialNetwork>, Target> targets =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final double defaultPostsPerSecond;
+    private final int defaultBurst;
+    private final java.time.Duration defaultTimeout;
+
+    public PostBroadcaster(double defaultPostsPerSecond, int defaultBurst, java.time.Duration defaultTimeout) {
+        this.defaultPostsPerSecond = defaultPostsPerSecond;
+        this.defaultBurst = defaultBurst;
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    // Задає ліміт частоти та тайм-аут для провайдера цієї мережі
+    public PostBroadcaster register(SocialNetwork network, TokenBucket limiter, java.time.Duration timeout) {
+        targets.put(provider(network), new Target(limiter, timeout));
+        return this;
+    }
+
+    // Повертає результат для кожної мережі в порядку переданої колекції
+    public java.util.Map<SocialNetwork, PostOutcome> broadcast(String message, java.util.Collection<SocialNetwork> networks) {
+        long start = System.nanoTime();
+        java.util.Map<SocialNetwork, java.util.concurrent.Future<PostOutcome>> pending = new java.util.LinkedHashMap<>();
+        java.util.Map<SocialNetwork, Long> deadlines = new java.util.HashMap<>();
+        for (SocialNetwork network : networks) {
+            Target target = targets.computeIfAbsent(provider(network), key ->
+                    new Target(new TokenBucket(defaultBurst, defaultPostsPerSecond), defaultTimeout));
+            long deadline = start + target.timeout.toNanos();
+            deadlines.put(network, deadline);
+            pending.put(network, EXECUTOR.submit(() -> post(network, target, message, start, deadline)));
+        }
+
+        java.util.Map<SocialNetwork, PostOutcome> outcomes = new java.util.LinkedHashMap<>();
+        for (java.util.Map.Entry<SocialNetwork, java.util.concurrent.Future<PostOutcome>> entry : pending.entrySet()) {
+            SocialNetwork network = entry.getKey();
+            java.util.concurrent.Future<PostOutcome> future = entry.getValue();
+            long remaining = deadlines.get(network) - System.nanoTime();
+            PostOutcome outcome;
+            try {
+                outcome = future.get(Math.max(0, remaining), java.util.concurrent.TimeUnit.NANOSECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                future.cancel(true);
+                outcome = new PostOutcome(PostOutcome.Status.TIMED_OUT, null, System.nanoTime() - start);
+            } catch (java.util.concurrent.ExecutionException e) {
+                outcome = new PostOutcome(PostOutcome.Status.FAILED, e.getCause(), System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                outcome = new PostOutcome(PostOutcome.Status.INTERRUPTED, e, System.nanoTime() - start);
+            }
+            outcomes.put(network, outcome);
+        }
+        return outcomes;
+    }
+
+    private static PostOutcome post(SocialNetwork network, Target target, String message, long start, long deadline) {
+        // Чекаємо на токен, а не шлемо понад ліміт: провайдер ніколи не отримує зайвих запитів
+        if (!target.limiter.acquire(deadline)) {
+            // acquire() повертає false і при перериванні, зберігаючи прапорець потоку
+            PostOutcome.Status status = Thread.currentThread().isInterrupted()
+                    ? PostOutcome.Status.INTERRUPTED : PostOutcome.Status.RATE_LIMITED;
+            return new PostOutcome(status, null, System.nanoTime() - start);
+        }
+        try {
+            network.postMessage(message);
+            return new PostOutcome(PostOutcome.Status.DELIVERED, null, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return new PostOutcome(PostOutcome.Status.FAILED, e, System.nanoTime() - start);
+        }
+    }
+
+    private static Class<? extends SocialNetwork> provider(SocialNetwork network) {
+        while (network instanceof PooledSession) {
+            network = ((PooledSession) network).delegate();
+        }
+        return network.getClass();
+    }
+
+    private static java.util.concurrent.ExecutorService createExecutor() {
+        try {
+            return (java.util.concurrent.ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return java.util.concurrent.Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "post-broadcast");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Target {
+        private final TokenBucket limiter;
+        private final java.time.Duration timeout;
+
+        Target(TokenBucket limiter, java.time.Duration timeout) {
+            this.limiter = limiter;
+            this.timeout = timeout;
+        }
+    }
+}
+
+// Результат публікації в одну мережу
+class PostOutcome {
+
+    enum Status { DELIVERED, FAILED, TIMED_OUT, RATE_LIMITED, INTERRUPTED }
+
+    private final Status status;
+    private final Throwable error;
+    private final long latencyNanos;
+
+    PostOutcome(Status status, Throwable error, long latencyNanos) {
+        this.status = status;
+        this.error = error;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public Status getStatus() { return status; }
+    public Throwable getError() { return error; }
+    public long getLatencyNanos() { return latencyNanos; }
+
+    @Override
+    public String toString() {
+        return status + (error != null ? " (" + error + ")" : "") + " за " + latencyNanos / 1_000_000 + " мс";
+    }
+}
+
+// Класичний token bucket: до capacity запитів поспіль, далі refillPerSecond на секунду
+class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public TokenBucket(int capacity, double refillPerSecond) {
+        if (capacity <= 0 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity і refillPerSecond мають бути додатними");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1e9;
+        this.tokens = capacity;
+    }
+
+    // Без очікування: повертає 0, якщо токен узято, інакше час очікування в наносекундах
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / refillPerNano);
+    }
+
+    // Чекає на токен до дедлайну System.nanoTime(); false, якщо не встигли
+    public boolean acquire(long deadlineNanos) {
+        while (true) {
+            long wait = tryAcquire();
+            if (wait == 0) {
+                return true;
+            }
+            if (System.nanoTime() + wait - deadlineNanos > 0) {
+                return false;
+            }
+            java.util.concurrent.locks.LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
+
+// Надійна черга публікацій перед SocialNetwork на основі журналу попереднього запису (WAL).
+// Кожна публікація спершу дописується в сегментований журнал; потік запису об'єднує
+// записи в пакети й робить один fsync на пакет (group commit). Диспетчер доставляє
+// записи й дописує ACK. Після перезапуску недоставлені записи відтворюються, а повторне
+// додавання з тим самим ключем ідемпотентності ігнорується, доки живе сегмент журналу
+// з цією публікацією. Доставка "щонайменше раз": збій між postMessage і збереженням ACK
+// призведе до повторної публікації.
+class PostOutbox implements AutoCloseable {
+
+    private static final byte POST = 1;
+    private static final byte ACK = 2;
+    // length(4) + crc(4) + type(1) + sequence(8)
+    private static final int HEADER_BYTES = 17;
+    private static final int MAX_BATCH = 4096;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final java.util.Map<String, SocialNetwork> networks = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private final java.util.concurrent.BlockingQueue<PendingWrite> writes = new java.util.concurrent.LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final java.util.concurrent.ScheduledExecutorService dispatcher;
+    private final java.util.concurrent.atomic.AtomicLong sequence = new java.util.concurrent.atomic.AtomicLong();
+
+    // Живі сегменти журналу; ключі доставлених публікацій зберігаються в сегменті
+    // публікації й забуваються разом із ним, тож пам'ять обмежена розміром журналу
+    private final java.util.concurrent.ConcurrentSkipListMap<Long, Segment> segments =
+            new java.util.concurrent.ConcurrentSkipListMap<>();
+    // Ключі публікацій, що ще в дорозі
+    private final java.util.Set<String> pending = java.util.concurrent.ConcurrentHashMap.newKeySet();
+
+    // Використовуються лише потоком запису (та конструктором до його старту)
+    private java.nio.channels.FileChannel active;
+    private long activeSegment;
+
+    private volatile boolean closed;
+    private final java.util.concurrent.atomic.LongAdder fsyncs = new java.util.concurrent.atomic.LongAdder();
+
+    // Відкриває журнал; недоставлені записи почнуть доставлятися після register()
+    public PostOutbox(Path directory, long segmentBytes) throws java.io.IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        java.nio.file.Files.createDirectories(directory);
+        java.util.List<OutboxEntry> undelivered = replay();
+        // Після перезапуску завжди починаємо новий сегмент, не дописуючи в старі
+        openSegment();
+        this.dispatcher = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::writeLoop, "outbox-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        for (OutboxEntry entry : undelivered) {
+            dispatcher.execute(() -> dispatch(entry, 0));
+        }
+    }
+
+    // Реєструє мережу під ідентифікатором, який зберігається в журналі
+    public PostOutbox register(String networkId, SocialNetwork network) {
+        networks.put(networkId, network);
+        return this;
+    }
+
+    // Завершується, коли запис надійно збережений на диску
+    public java.util.concurrent.CompletableFuture<Void> enqueue(String idempotencyKey, String networkId, String message) {
+        if (closed) {
+            throw new IllegalStateException("Outbox закрито");
+        }
+        if (isDelivered(idempotencyKey) || !pending.add(idempotencyKey)) {
+            // Повтор уже прийнятої публікації нічого не дописує
+            return java.util.concurrent.CompletableFuture.completedFuture(null);
+        }
+        OutboxEntry entry = new OutboxEntry(sequence.incrementAndGet(), idempotencyKey, networkId, message);
+        PendingWrite write = new PendingWrite(POST, entry, encodePost(entry));
+        writes.add(write);
+        // close() міг завершити потік запису між перевіркою closed і add: тоді запис
+        // забирає або цей потік, або close(), і майбутнє в будь-якому разі завершиться
+        if (closed && writes.remove(write)) {
+            pending.remove(idempotencyKey);
+            write.durable.completeExceptionally(new IllegalStateException("Outbox закрито"));
+        }
+        return write.durable;
+    }
+
+    public java.util.concurrent.CompletableFuture<Void> enqueue(String networkId, String message) {
+        return enqueue(java.util.UUID.randomUUID().toString(), networkId, message);
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public long getFsyncs() {
+        return fsyncs.sum();
+    }
+
+    // Дописує вже прийняті записи та зупиняє потоки
+    @Override
+    public void close() throws java.io.IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.shutdownNow();
+        PendingWrite orphan;
+        while ((orphan = writes.poll()) != null) {
+            pending.remove(orphan.entry.key);
+            orphan.durable.completeExceptionally(new IllegalStateException("Outbox закрито"));
+        }
+        active.close();
+    }
+
+    private boolean isDelivered(String key) {
+        for (Segment segment : segments.values()) {
+            if (segment.delivered.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Доставка виконується одним потоком; невдалі спроби повторюються з експоненційною паузою
+    private void dispatch(OutboxEntry entry, int attempt) {
+        SocialNetwork network = networks.get(entry.networkId);
+        try {
+            if (network == null) {
+                throw new IllegalStateException("Мережу " + entry.networkId + " не зареєстровано");
+            }
+            network.postMessage(entry.message);
+            // Сегмент публікації живе, доки вона не підтверджена, тож він ще на місці
+            segments.get(entry.segment).delivered.add(entry.key);
+            acknowledge(entry);
+        } catch (RuntimeException e) {
+            if (!closed) {
+                long delay = Math.min(30_000, 100L << Math.min(attempt, 9));
+                dispatcher.schedule(() -> dispatch(entry, attempt + 1), delay, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void acknowledge(OutboxEntry entry) {
+        if (!closed) {
+            writes.add(new PendingWrite(ACK, entry, encodeAck(entry)));
+        }
+    }
+
+    private void writeLoop() {
+        java.util.List<PendingWrite> batch = new java.util.ArrayList<>(MAX_BATCH);
+        // Потік не переривається: переривання закрило б FileChannel посеред fsync
+        while (!closed || !writes.isEmpty()) {
+            try {
+                PendingWrite first = writes.poll(10, java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            writes.drainTo(batch, MAX_BATCH - batch.size());
+            if (batch.isEmpty()) {
+                continue;
+            }
+            writeBatch(batch);
+            batch.clear();
+            try {
+                deleteDeliveredSegments();
+            } catch (java.io.IOException e) {
+                // сегмент спробуємо видалити після наступного пакета
+            }
+        }
+    }
+
+    // Один виклик write та один fsync на кожен сегмент, якого торкається пакет.
+    // Групи, що вже надійно записані, підтверджуються одразу; при помилці група
+    // відкочується: лічильники сегмента відновлюються, а недописаний хвіст обрізається
+    private void writeBatch(java.util.List<PendingWrite> batch) {
+        java.util.List<ByteBuffer> buffers = new java.util.ArrayList<>();
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            long mark = -1;
+            try {
+                if (active.size() > 0 && active.size() + batch.get(from).record.remaining() > segmentBytes) {
+                    openSegment();
+                }
+                mark = active.size();
+                long bytes = 0;
+                while (to < batch.size()) {
+                    PendingWrite write = batch.get(to);
+                    if (mark + bytes > 0 && mark + bytes + write.record.remaining() > segmentBytes) {
+                        break;
+                    }
+                    buffers.add(write.record);
+                    bytes += write.record.remaining();
+                    if (write.type == POST) {
+                        write.entry.segment = activeSegment;
+                        segments.get(activeSegment).undelivered.incrementAndGet();
+                    }
+                    to++;
+                }
+                flush(buffers);
+            } catch (java.io.IOException | RuntimeException e) {
+                rollback(batch.subList(from, to), mark);
+                for (PendingWrite write : batch.subList(from, batch.size())) {
+                    pending.remove(write.entry.key);
+                    write.durable.completeExceptionally(e);
+                }
+                return;
+            } finally {
+                buffers.clear();
+            }
+            for (PendingWrite write : batch.subList(from, to)) {
+                if (write.type == POST) {
+                    OutboxEntry entry = write.entry;
+                    dispatcher.execute(() -> dispatch(entry, 0));
+                } else {
+                    pending.remove(write.entry.key);
+                    segments.get(write.entry.segment).undelivered.decrementAndGet();
+                }
+                write.durable.complete(null);
+            }
+            from = to;
+        }
+    }
+
+    // Повертає сегмент у стан до невдалої групи, щоб наступні записи не йшли після сміття
+    private void rollback(java.util.List<PendingWrite> group, long mark) {
+        for (PendingWrite write : group) {
+            if (write.type == POST) {
+                segments.get(write.entry.segment).undelivered.decrementAndGet();
+            }
+        }
+        if (mark >= 0) {
+            try {
+                active.truncate(mark);
+            } catch (java.io.IOException | RuntimeException e) {
+                // при відтворенні пошкоджений хвіст однаково буде відкинуто
+            }
+        }
+    }
+
+    private void flush(java.util.List<ByteBuffer> buffers) throws java.io.IOException {
+        if (buffers.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long remaining = pendingBytes(buffers);
+        while (remaining > 0) {
+            remaining -= active.write(array);
+        }
+        active.force(false);
+        fsyncs.increment();
+    }
+
+    private static long pendingBytes(java.util.List<ByteBuffer> buffers) {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        return total;
+    }
+
+    // Видаляє сегменти від найстаршого, доки всі їхні публікації доставлені.
+    // Порядок важливий: ACK нового сегмента можуть стосуватися публікацій у старшому.
+    private void deleteDeliveredSegments() throws java.io.IOException {
+        for (java.util.Map.Entry<Long, Segment> segment : segments.entrySet()) {
+            if (segment.getKey() == activeSegment || segment.getValue().undelivered.get() > 0) {
+                return;
+            }
+            java.nio.file.Files.deleteIfExists(segmentPath(segment.getKey()));
+            segments.remove(segment.getKey());
+        }
+    }
+
+    private void openSegment() throws java.io.IOException {
+        if (active != null) {
+            active.close();
+        }
+        activeSegment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        segments.put(activeSegment, new Segment());
+        active = java.nio.channels.FileChannel.open(segmentPath(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("segment-%016d.log", segment));
+    }
+
+    // Читає всі сегменти; обрізаний або пошкоджений хвіст відкидається
+    private java.util.List<OutboxEntry> replay() throws java.io.IOException {
+        java.util.Map<Long, OutboxEntry> posts = new java.util.LinkedHashMap<>();
+        java.util.List<Path> files;
+        try (java.util.stream.Stream<Path> stream = java.nio.file.Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().matches("segment-\\d{16}\\.log"))
+                    .sorted().collect(java.util.stream.Collectors.toList());
+        }
+        for (Path file : files) {
+            long segment = Long.parseLong(file.getFileName().toString().substring(8, 24));
+            segments.put(segment, new Segment());
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+                while (data.hasRemaining() && channel.read(data) >= 0) {
+                    // читаємо сегмент повністю
+                }
+                data.flip();
+                long valid = 0;
+                while (data.remaining() >= HEADER_BYTES) {
+                    int start = data.position();
+                    int length = data.getInt();
+                    int crc = data.getInt();
+                    if (length < HEADER_BYTES - 8 || length > data.remaining()) {
+                        break;
+                    }
+                    java.util.zip.CRC32 checksum = new java.util.zip.CRC32();
+                    checksum.update(data.array(), data.position(), length);
+                    if ((int) checksum.getValue() != crc) {
+                        break;
+                    }
+                    byte type = data.get();
+                    long seq = data.getLong();
+                    sequence.accumulateAndGet(seq, Math::max);
+                    String key = readString(data);
+                    if (type == POST) {
+                        OutboxEntry entry = new OutboxEntry(seq, key, readString(data), readString(data));
+                        entry.segment = segment;
+                        posts.put(seq, entry);
+                    } else {
+                        // Ключ належить сегменту публікації, якщо той ще існує
+                        OutboxEntry post = posts.remove(seq);
+                        segments.get(post != null ? post.segment : segment).delivered.add(key);
+                    }
+                    data.position(start + 8 + length);
+                    valid = data.position();
+                }
+                if (valid < channel.size()) {
+                    channel.truncate(valid);
+                }
+            }
+        }
+        for (OutboxEntry entry : posts.values()) {
+            segments.get(entry.segment).undelivered.incrementAndGet();
+            pending.add(entry.key);
+        }
+        return new java.util.ArrayList<>(posts.values());
+    }
+
+    private static ByteBuffer encodePost(OutboxEntry entry) {
+        byte[] key = entry.key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        byte[] network = entry.networkId.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        byte[] message = entry.message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        return encode(POST, entry.sequence, key, network, message);
+    }
+
+    private static ByteBuffer encodeAck(OutboxEntry entry) {
+        return encode(ACK, entry.sequence, entry.key.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer encode(byte type, long seq, byte[]... fields) {
+        int payload = 0;
+        for (byte[] field : fields) {
+            payload += 4 + field.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload);
+        record.putInt(HEADER_BYTES - 8 + payload).putInt(0).put(type).putLong(seq);
+        for (byte[] field : fields) {
+            record.putInt(field.length).put(field);
+        }
+        java.util.zip.CRC32 checksum = new java.util.zip.CRC32();
+        checksum.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) checksum.getValue());
+        return record.flip();
+    }
+
+    private static String readString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static final class OutboxEntry {
+        private final long sequence;
+        private final String key;
+        private final String networkId;
+        private final String message;
+        // Сегмент, у який записано публікацію
+        private volatile long segment;
+
+        OutboxEntry(long sequence, String key, String networkId, String message) {
+            this.sequence = sequence;
+            this.key = key;
+            this.networkId = networkId;
+            this.message = message;
+        }
+    }
+
+    // Сегмент журналу: кількість недоставлених публікацій і ключі доставлених
+    private static final class Segment {
+        private final java.util.concurrent.atomic.AtomicInteger undelivered = new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.Set<String> delivered = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    }
+
+    private static final class PendingWrite {
+        private final byte type;
+        private final OutboxEntry entry;
+        private final ByteBuffer record;
+        private final java.util.concurrent.CompletableFuture<Void> durable = new java.util.concurrent.CompletableFuture<>();
+
+        PendingWrite(byte type, OutboxEntry entry, ByteBuffer record) {
+            this.type = type;
+            this.entry = entry;
+            this.record = record;
+        }
+    }
+}
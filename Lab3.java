@@ -1,111 +1,2590 @@
-import java.util.StringJoiner;
-import java.util.Arrays;
+/// Лабораторна робота №3
+// Тема: Патерн проектування "Будівельник"
+
+/**
+ * Інтерфейс QueryBuilder (Builder). 
+ * Визначає спільний інтерфейс для всіх конкретних будівельників.
+ */
+interface QueryBuilder {
+
+    /** Додає частину SELECT <columns> FROM <table> до запиту. */
+    QueryBuilder select(String table, String... columns);
+
+    /** Додає частину WHERE <condition> до запиту. */
+    QueryBuilder where(String condition);
+
+    /**
+     * Додає параметризовану умову <column> <operator> ? (об'єднується через AND).
+     * Значення не вбудовується в шаблон, тож запити однієї форми мають однаковий текст.
+     */
+    QueryBuilder where(String column, String operator, Object value);
+
+    /**
+     * Додає типізовану умову (об'єднується через AND з іншими умовами).
+     * Перед збереженням дерево спрощується: константи згортаються, діапазони зливаються.
+     */
+    QueryBuilder where(Predicate predicate);
+
+    /** Додає частину LIMIT <limit> до запиту. */
+    QueryBuilder limit(int limit);
+
+    /** Додає колонку до ORDER BY; порядок викликів визначає пріоритет сортування. */
+    QueryBuilder orderBy(String column, boolean ascending);
+
+    /**
+     * Keyset-пагінація: повертає рядки, що йдуть після рядка з ключем lastKeyValues
+     * у порядку ORDER BY. Кількість значень має збігатися з кількістю колонок orderBy.
+     * На відміну від OFFSET, вартість не залежить від глибини сторінки.
+     */
+    QueryBuilder seekAfter(Object... lastKeyValues);
+
+    /** Повертає кінцевий сформований SQL-запит. */
+    String getSQL();
+
+    /**
+     * Дописує SQL-запит у переданий буфер без проміжних рядків.
+     * Після прогріву виклик не виділяє пам'яті, якщо буфер має достатню ємність.
+     */
+    StringBuilder renderTo(StringBuilder out);
+
+    /**
+     * Дописує SQL-запит у CharBuffer.
+     * Якщо місця недостатньо, кидає java.nio.BufferOverflowException.
+     */
+    java.nio.CharBuffer renderTo(java.nio.CharBuffer out);
+
+    /** Очищує стан будівельника для побудови наступного запиту. */
+    QueryBuilder reset();
+
+    /**
+     * Повертає шаблон із заповнювачами та значення параметрів.
+     * Шаблон береться з кешу за формою запиту й повторно не рендериться.
+     */
+    BoundQuery bind();
+}
+
+/**
+ * Спільна основа будівельників.
+ * Зберігає лише посилання на частини запиту та збирає SQL одним проходом у буфер,
+ * тож на запит не створюються проміжні рядки.
+ */
+abstract class AbstractQueryBuilder implements QueryBuilder {
+
+    private static final String[] NO_COLUMNS = new String[0];
+
+    // Оператори, дозволені в параметризованих умовах
+    private static final java.util.Set<String> OPERATORS =
+            java.util.Set.of("=", "<>", "!=", "<", "<=", ">", ">=", "LIKE");
+
+    private final SqlDialect dialect;
+    private final SqlTemplateCache templateCache;
+
+    // Внутрішній стан для зберігання частин запиту
+    private String table;
+    private String[] columns = NO_COLUMNS;
+    private String condition;
+    private int limit;
+
+    // Параметризовані умови (column operator ?), об'єднані через AND.
+    // Масиви ростуть за потреби та перевикористовуються після reset().
+    private String[] paramColumns = new String[4];
+    private String[] paramOperators = new String[4];
+    private Object[] paramValues = new Object[4];
+    private int paramCount;
+
+    // Спрощене дерево типізованих умов; null — умов немає
+    private Predicate predicate;
+
+    // Колонки ORDER BY та значення ключа останнього рядка попередньої сторінки
+    private String[] orderColumns = new String[2];
+    private boolean[] orderAscending = new boolean[2];
+    private int orderCount;
+    private Object[] seekValues;
+
+    // Форма й шаблон останнього bind(): повтор тієї ж форми не звертається навіть до кешу
+    private QueryShape lastShape;
+    private String lastTemplate;
+
+    // Те саме для template(cache): профайлер має власний кеш і не змішується з bind()
+    private QueryShape lastProfiledShape;
+    private String lastProfiledTemplate;
+
+    // Плоский опис форми поточного запиту; перевикористовується між викликами bind()
+    private Object[] shape = new Object[32];
+    private int shapeLength;
+
+    // Лічильник заповнювачів під час рендерингу шаблону
+    private int parameter;
+
+    // Буфер для getSQL() і renderTo(CharBuffer), що перевикористовується між запитами
+    private final StringBuilder scratch = new StringBuilder(128);
+
+    // Створені один раз адаптери для обходу дерева умов без алокацій на запит
+    private final SqlValueWriter literalWriter;
+    private final SqlValueWriter placeholderWriter;
+    private final java.util.function.Consumer<Object> shapeSink = this::addShape;
+    private final java.util.List<Object> predicateValues = new java.util.ArrayList<>();
+    private final java.util.function.Function<QueryShape, String> templateRenderer = ignored -> {
+        StringBuilder out = new StringBuilder(128);
+        render(out, false);
+        return out.toString();
+    };
+
+    protected AbstractQueryBuilder(SqlDialect dialect, SqlTemplateCache templateCache) {
+        this.dialect = dialect;
+        this.templateCache = templateCache;
+        this.literalWriter = dialect::appendLiteral;
+        this.placeholderWriter = (out, value) -> dialect.appendPlaceholder(out, ++parameter);
+    }
+
+    @Override
+    public QueryBuilder select(String table, String... columns) {
+        // Масив колонок не копіюється: будівельник лише читає його під час збирання
+        this.table = table;
+        this.columns = columns;
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder where(String condition) {
+        if (condition != null && !condition.isEmpty()) {
+            this.condition = condition;
+        }
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder where(String column, String operator, Object value) {
+        if (!OPERATORS.contains(operator)) {
+            throw new IllegalArgumentException("Непідтримуваний оператор: " + operator);
+        }
+        if (paramCount == paramColumns.length) {
+            int size = paramCount * 2;
+            paramColumns = java.util.Arrays.copyOf(paramColumns, size);
+            paramOperators = java.util.Arrays.copyOf(paramOperators, size);
+            paramValues = java.util.Arrays.copyOf(paramValues, size);
+        }
+        paramColumns[paramCount] = column;
+        paramOperators[paramCount] = operator;
+        paramValues[paramCount] = value;
+        paramCount++;
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder where(Predicate predicate) {
+        Predicate combined = (this.predicate == null ? predicate : Predicate.and(this.predicate, predicate))
+                .simplifyFilter();
+        this.predicate = combined.equals(Predicate.TRUE) ? null : combined;
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder limit(int limit) {
+        if (limit > 0) {
+            this.limit = limit;
+        }
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder orderBy(String column, boolean ascending) {
+        if (orderCount == orderColumns.length) {
+            orderColumns = java.util.Arrays.copyOf(orderColumns, orderCount * 2);
+            orderAscending = java.util.Arrays.copyOf(orderAscending, orderCount * 2);
+        }
+        orderColumns[orderCount] = column;
+        orderAscending[orderCount] = ascending;
+        orderCount++;
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder seekAfter(Object... lastKeyValues) {
+        for (Object value : lastKeyValues) {
+            if (value == null) {
+                throw new IllegalArgumentException("Значення ключа seekAfter не можуть бути NULL");
+            }
+        }
+        this.seekValues = lastKeyValues;
+        return this; // Повертаємо this для ланцюгового виклику
+    }
+
+    @Override
+    public QueryBuilder reset() {
+        table = null;
+        columns = NO_COLUMNS;
+        condition = null;
+        limit = 0;
+        java.util.Arrays.fill(paramValues, 0, paramCount, null);
+        paramCount = 0;
+        predicate = null;
+        orderCount = 0;
+        seekValues = null;
+        return this;
+    }
+
+    @Override
+    public String getSQL() {
+        scratch.setLength(0);
+        return renderTo(scratch).toString();
+    }
+
+    @Override
+    public StringBuilder renderTo(StringBuilder out) {
+        render(out, true);
+        return out;
+    }
+
+    @Override
+    public java.nio.CharBuffer renderTo(java.nio.CharBuffer out) {
+        scratch.setLength(0);
+        renderTo(scratch);
+        if (out.remaining() < scratch.length()) {
+            throw new java.nio.BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            scratch.getChars(0, scratch.length(), out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + scratch.length());
+        } else {
+            for (int i = 0; i < scratch.length(); i++) {
+                out.put(scratch.charAt(i));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public BoundQuery bind() {
+        // Перевірка до звернення до кешу: форма не містить кількості значень seek,
+        // тож збіг шаблону не означає, що параметри складуться правильно
+        checkSeekArity();
+        describeShape();
+        String template;
+        if (lastShape != null && lastShape.matches(shape, shapeLength)) {
+            templateCache.recordHit();
+            template = lastTemplate;
+        } else {
+            QueryShape key = new QueryShape(shape, shapeLength);
+            template = templateCache.get(key, templateRenderer);
+            lastShape = key;
+            lastTemplate = template;
+        }
+        return new BoundQuery(template, collectParameters());
+    }
+
+    /**
+     * Шаблон поточної форми з переданого кешу. На відміну від bind(), не чіпає кеш будівельника
+     * і не збирає параметрів — так профайлер не витісняє шаблони й не спотворює статистику кешу.
+     */
+    String template(SqlTemplateCache cache) {
+        checkSeekArity();
+        describeShape();
+        if (lastProfiledShape != null && lastProfiledShape.matches(shape, shapeLength)) {
+            cache.recordHit();
+            return lastProfiledTemplate;
+        }
+        QueryShape key = new QueryShape(shape, shapeLength);
+        String template = cache.get(key, templateRenderer);
+        lastProfiledShape = key;
+        lastProfiledTemplate = template;
+        return template;
+    }
+
+    // Значення в порядку заповнювачів шаблону; має відповідати render(out, false)
+    private Object[] collectParameters() {
+        predicateValues.clear();
+        if (predicate != null) {
+            predicate.collectValues(predicateValues);
+        }
+        int seekCount = seekValues == null ? 0 : seekOccurrences();
+        Object[] parameters = new Object[paramCount + predicateValues.size() + seekCount + (limit > 0 ? 1 : 0)];
+        System.arraycopy(paramValues, 0, parameters, 0, paramCount);
+        int next = paramCount;
+        for (Object value : predicateValues) {
+            parameters[next++] = value;
+        }
+        if (seekValues != null) {
+            if (dialect.reusesPlaceholders() || usesRowComparison()) {
+                System.arraycopy(seekValues, 0, parameters, next, seekValues.length);
+                next += seekValues.length;
+            } else {
+                parameters[next++] = seekValues[0];
+                for (int i = 0; i < orderCount; i++) {
+                    for (int j = 0; j <= i; j++) {
+                        parameters[next++] = seekValues[j];
+                    }
+                }
+            }
+        }
+        if (limit > 0) {
+            parameters[next] = limit;
+        }
+        return parameters;
+    }
+
+    // Скільки заповнювачів займає умова seek у шаблоні
+    private int seekOccurrences() {
+        if (dialect.reusesPlaceholders() || usesRowComparison()) {
+            return orderCount;
+        }
+        return 1 + orderCount * (orderCount + 1) / 2;
+    }
+
+    // orderBy() можна викликати й після seekAfter(), тож кількість звіряється під час збирання
+    private void checkSeekArity() {
+        if (seekValues != null && seekValues.length != orderCount) {
+            throw new IllegalStateException("seekAfter очікує " + orderCount + " значень, отримано " + seekValues.length);
+        }
+    }
+
+    // Записує форму запиту в плоский масив shape без створення об'єктів
+    private void describeShape() {
+        shapeLength = 0;
+        addShape(dialect);
+        addShape(table);
+        addShape(columns.length);
+        for (String column : columns) {
+            addShape(column);
+        }
+        addShape(condition);
+        addShape(paramCount);
+        for (int i = 0; i < paramCount; i++) {
+            addShape(paramColumns[i]);
+            addShape(paramOperators[i]);
+        }
+        addShape(predicate != null);
+        if (predicate != null) {
+            predicate.describeShape(shapeSink);
+        }
+        addShape(orderCount);
+        for (int i = 0; i < orderCount; i++) {
+            addShape(orderColumns[i]);
+            addShape(orderAscending[i]);
+        }
+        addShape(seekValues != null);
+        addShape(limit > 0);
+    }
+
+    private void addShape(Object part) {
+        if (shapeLength == shape.length) {
+            shape = java.util.Arrays.copyOf(shape, shapeLength * 2);
+        }
+        shape[shapeLength++] = part;
+    }
+
+    // inline = true підставляє значення як літерали, інакше — заповнювачі діалекту
+    private void render(StringBuilder out, boolean inline) {
+        checkSeekArity();
+        // Збираємо усі частини запиту
+        if (table != null) {
+            out.append("SELECT ");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(columns[i]);
+            }
+            out.append(" FROM ").append(table);
+        }
+        parameter = 0;
+        boolean hasSeek = seekValues != null && orderCount > 0;
+        if (condition != null || paramCount > 0 || predicate != null || hasSeek) {
+            out.append(" WHERE ");
+            boolean first = true;
+            if (condition != null) {
+                // Дужки зберігають пріоритет, якщо довільна умова містить OR
+                boolean wrap = paramCount > 0 || predicate != null || hasSeek;
+                out.append(wrap ? "(" : "").append(condition).append(wrap ? ")" : "");
+                first = false;
+            }
+            for (int i = 0; i < paramCount; i++) {
+                if (!first) {
+                    out.append(" AND ");
+                }
+                first = false;
+                out.append(paramColumns[i]).append(' ').append(paramOperators[i]).append(' ');
+                appendValue(out, paramValues[i], inline, ++parameter);
+            }
+            if (predicate != null) {
+                // OR верхнього рівня береться в дужки, щоб не змішатися з іншими умовами через AND
+                boolean wrap = predicate.precedence() == 0 && (!first || hasSeek);
+                if (!first) {
+                    out.append(" AND ");
+                }
+                first = false;
+                if (wrap) {
+                    out.append('(');
+                }
+                predicate.render(out, dialect, inline ? literalWriter : placeholderWriter);
+                if (wrap) {
+                    out.append(')');
+                }
+            }
+            if (hasSeek) {
+                if (!first) {
+                    out.append(" AND ");
+                }
+                renderSeek(out, inline);
+            }
+        }
+        if (orderCount > 0) {
+            out.append(" ORDER BY ");
+            for (int i = 0; i < orderCount; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(orderColumns[i]).append(orderAscending[i] ? " ASC" : " DESC");
+            }
+        }
+        if (limit > 0) {
+            out.append(" LIMIT ");
+            appendValue(out, limit, inline, ++parameter);
+        }
+        out.append(';');
+    }
+
+    // Умова "рядок після ключа". Порівняння кортежів (a, b) > (x, y) використовується там,
+    // де СУБД перетворює його на діапазон індексу; інакше — розгорнута форма з провідною
+    // межею a >= x, яку оптимізатор MySQL може використати для range-сканування.
+    private void renderSeek(StringBuilder out, boolean inline) {
+        int seekBase = parameter;
+        if (usesRowComparison()) {
+            boolean tuple = orderCount > 1;
+            out.append(tuple ? "(" : "");
+            for (int i = 0; i < orderCount; i++) {
+                out.append(i > 0 ? ", " : "").append(orderColumns[i]);
+            }
+            out.append(tuple ? ")" : "").append(orderAscending[0] ? " > " : " < ").append(tuple ? "(" : "");
+            for (int i = 0; i < orderCount; i++) {
+                out.append(i > 0 ? ", " : "");
+                appendSeekValue(out, i, inline, seekBase);
+            }
+            out.append(tuple ? ")" : "");
+        } else {
+            out.append(orderColumns[0]).append(orderAscending[0] ? " >= " : " <= ");
+            appendSeekValue(out, 0, inline, seekBase);
+            out.append(" AND (");
+            for (int i = 0; i < orderCount; i++) {
+                out.append(i > 0 ? " OR (" : "(");
+                for (int j = 0; j < i; j++) {
+                    out.append(orderColumns[j]).append(" = ");
+                    appendSeekValue(out, j, inline, seekBase);
+                    out.append(" AND ");
+                }
+                out.append(orderColumns[i]).append(orderAscending[i] ? " > " : " < ");
+                appendSeekValue(out, i, inline, seekBase);
+                out.append(')');
+            }
+            out.append(')');
+        }
+        if (dialect.reusesPlaceholders()) {
+            parameter = seekBase + orderCount;
+        }
+    }
+
+    // Кортежне порівняння коректне лише за однакового напрямку сортування всіх колонок
+    private boolean usesRowComparison() {
+        if (orderCount == 1) {
+            return true;
+        }
+        if (!dialect.indexFriendlyRowComparison()) {
+            return false;
+        }
+        for (int i = 1; i < orderCount; i++) {
+            if (orderAscending[i] != orderAscending[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Діалекти з нумерованими заповнювачами посилаються на одне значення кілька разів
+    private void appendSeekValue(StringBuilder out, int index, boolean inline, int seekBase) {
+        if (inline) {
+            dialect.appendLiteral(out, seekValues[index]);
+        } else if (dialect.reusesPlaceholders()) {
+            dialect.appendPlaceholder(out, seekBase + index + 1);
+        } else {
+            dialect.appendPlaceholder(out, ++parameter);
+        }
+    }
+
+    private void appendValue(StringBuilder out, Object value, boolean inline, int index) {
+        if (inline) {
+            dialect.appendLiteral(out, value);
+        } else {
+            dialect.appendPlaceholder(out, index);
+        }
+    }
+}
+
+/**
+ * Конкретний будівельник для PostgreSQL.
+ * Визначає діалект; збирання запиту успадковане від AbstractQueryBuilder.
+ */
+class PostgreSQLQueryBuilder extends AbstractQueryBuilder {
+
+    public PostgreSQLQueryBuilder() {
+        this(SqlTemplateCache.shared());
+    }
+
+    public PostgreSQLQueryBuilder(SqlTemplateCache templateCache) {
+        // PostgreSQL: заповнювачі $1, $2, ...
+        super(SqlDialect.POSTGRESQL, templateCache);
+    }
+}
+
+/**
+ * Конкретний будівельник для MySQL.
+ * Визначає діалект, дозволяючи специфічні відмінності.
+ */
+class MySQLQueryBuilder extends AbstractQueryBuilder {
+
+    public MySQLQueryBuilder() {
+        this(SqlTemplateCache.shared());
+    }
+
+    public MySQLQueryBuilder(SqlTemplateCache templateCache) {
+        // MySQL: заповнювачі ?
+        super(SqlDialect.MYSQL, templateCache);
+    }
+}
+
+/**
+ * Відмінності діалектів SQL, потрібні будівельникам.
+ */
+enum SqlDialect {
+
+    POSTGRESQL {
+        @Override
+        void appendPlaceholder(StringBuilder out, int index) {
+            out.append('$').append(index);
+        }
+
+        @Override
+        boolean reusesPlaceholders() {
+            return true;
+        }
+
+        @Override
+        boolean indexFriendlyRowComparison() {
+            return true;
+        }
+
+        @Override
+        void appendString(StringBuilder out, String value) {
+            // standard_conforming_strings: екранується лише апостроф
+            out.append('\'');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                out.append(c);
+                if (c == '\'') {
+                    out.append('\'');
+                }
+            }
+            out.append('\'');
+        }
+
+        @Override
+        void appendNonFinite(StringBuilder out, double value) {
+            // Рядок 'NaN' / 'Infinity' неявно приводиться до float8/numeric
+            appendString(out, Double.toString(value));
+        }
+    },
+
+    MYSQL {
+        @Override
+        void appendPlaceholder(StringBuilder out, int index) {
+            out.append('?');
+        }
+
+        @Override
+        boolean reusesPlaceholders() {
+            return false;
+        }
+
+        @Override
+        boolean indexFriendlyRowComparison() {
+            // Оптимізатор MySQL не завжди перетворює (a, b) > (x, y) на діапазон індексу
+            return false;
+        }
+
+        @Override
+        void appendString(StringBuilder out, String value) {
+            // MySQL за замовчуванням трактує зворотну косу як екранування
+            out.append('\'');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\'' || c == '\\') {
+                    out.append(c);
+                }
+                out.append(c);
+            }
+            out.append('\'');
+        }
+
+        @Override
+        void appendNonFinite(StringBuilder out, double value) {
+            throw new IllegalArgumentException("MySQL не зберігає " + value + " у числових колонках");
+        }
+    };
+
+    /** Дописує заповнювач параметра з номером index (починаючи з 1). */
+    abstract void appendPlaceholder(StringBuilder out, int index);
+
+    /** Дописує рядковий літерал з екрануванням. */
+    abstract void appendString(StringBuilder out, String value);
+
+    /** Чи можна посилатися на той самий параметр кілька разів ($1 ... $1). */
+    abstract boolean reusesPlaceholders();
+
+    /** Чи використовує оптимізатор індекс для порівняння кортежів (a, b) > (x, y). */
+    abstract boolean indexFriendlyRowComparison();
+
+    /** Дописує NaN або нескінченність: числового літерала для них у SQL немає. */
+    abstract void appendNonFinite(StringBuilder out, double value);
+
+    /** Дописує значення як SQL-літерал. */
+    void appendLiteral(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("NULL");
+        } else if (value instanceof Boolean) {
+            out.append((Boolean) value ? "TRUE" : "FALSE");
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else if ((value instanceof Double || value instanceof Float) && !Double.isFinite(((Number) value).doubleValue())) {
+            appendNonFinite(out, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.append(value);
+        } else {
+            appendString(out, value.toString());
+        }
+    }
+}
+
+/**
+ * Шаблон запиту із заповнювачами та значеннями для їх прив'язки драйвером.
+ */
+class BoundQuery {
+
+    private final String sql;
+    private final Object[] parameters;
+
+    BoundQuery(String sql, Object[] parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /** Стабільний текст запиту: однаковий для всіх запитів однієї форми. */
+    public String getSql() {
+        return sql;
+    }
+
+    /** Значення параметрів у порядку заповнювачів. */
+    public Object[] getParameters() {
+        return parameters.clone();
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + java.util.Arrays.toString(parameters);
+    }
+}
+
+/**
+ * Кеш відрендерених шаблонів за формою запиту.
+ * Повторна форма повертає вже зібраний рядок без рендерингу.
+ */
+class SqlTemplateCache {
+
+    private static final SqlTemplateCache SHARED = new SqlTemplateCache(10_000);
+
+    private final int maxEntries;
+    private final java.util.concurrent.ConcurrentHashMap<QueryShape, String> templates =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final java.util.concurrent.atomic.LongAdder hits = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder misses = new java.util.concurrent.atomic.LongAdder();
+
+    public SqlTemplateCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** Спільний кеш, який використовують будівельники за замовчуванням. */
+    public static SqlTemplateCache shared() {
+        return SHARED;
+    }
+
+    String get(QueryShape shape, java.util.function.Function<QueryShape, String> renderer) {
+        String template = templates.get(shape);
+        if (template != null) {
+            hits.increment();
+            return template;
+        }
+        misses.increment();
+        // Після заповнення нові форми рендеряться без кешування, щоб пам'ять не росла
+        if (templates.size() >= maxEntries) {
+            return renderer.apply(shape);
+        }
+        return templates.computeIfAbsent(shape, renderer);
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SqlTemplateCache{hits=" + getHits() + ", misses=" + getMisses() + ", size=" + size() + "}";
+    }
+}
+
+/**
+ * Форма запиту: усе, крім значень параметрів. Ключ кешу шаблонів.
+ * Зберігається як плоский масив частин, який будівельник заповнює без створення об'єктів.
+ */
+final class QueryShape {
+
+    private final Object[] parts;
+    private final int hash;
+
+    QueryShape(Object[] parts, int length) {
+        this.parts = java.util.Arrays.copyOf(parts, length);
+        this.hash = java.util.Arrays.hashCode(this.parts);
+    }
+
+    /** Порівнює з поточним описом форми без копіювання. */
+    boolean matches(Object[] other, int length) {
+        if (parts.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!java.util.Objects.equals(parts[i], other[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof QueryShape && hash == ((QueryShape) o).hash
+                && matches(((QueryShape) o).parts, ((QueryShape) o).parts.length);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
+
+/**
+ * Запис значення в SQL: літералом або заповнювачем (залежить від режиму рендерингу).
+ */
+interface SqlValueWriter {
+    void write(StringBuilder out, Object value);
+}
+
+/**
+ * Типізована умова WHERE у вигляді дерева виразів.
+ * Дерево можна проаналізувати й спростити (simplify) до рендерингу, тому в базу
+ * потрапляють щільніші умови, зручні для індексів.
+ */
+abstract class Predicate {
+
+    static final Predicate TRUE = new Constant(true);
+    static final Predicate FALSE = new Constant(false);
+    // Третє значення логіки SQL: результат порівняння з NULL
+    static final Predicate UNKNOWN = new Constant(null);
+
+    public static Predicate eq(String column, Object value) { return new Comparison(column, "=", value); }
+    public static Predicate ne(String column, Object value) { return new Comparison(column, "<>", value); }
+    public static Predicate lt(String column, Object value) { return new Comparison(column, "<", value); }
+    public static Predicate le(String column, Object value) { return new Comparison(column, "<=", value); }
+    public static Predicate gt(String column, Object value) { return new Comparison(column, ">", value); }
+    public static Predicate ge(String column, Object value) { return new Comparison(column, ">=", value); }
+    public static Predicate like(String column, String pattern) { return new Comparison(column, "LIKE", pattern); }
+
+    /** Регістронезалежний LIKE: ILIKE у PostgreSQL, LOWER(...) LIKE LOWER(...) у MySQL. */
+    public static Predicate ilike(String column, String pattern) { return new Comparison(column, "ILIKE", pattern); }
+
+    public static Predicate in(String column, Object... values) { return new In(column, values.clone()); }
+    public static Predicate between(String column, Object low, Object high) { return new Between(column, low, high); }
+    public static Predicate isNull(String column) { return new IsNull(column, false); }
+    public static Predicate isNotNull(String column) { return new IsNull(column, true); }
+    public static Predicate and(Predicate... operands) { return new Junction(true, java.util.List.of(operands)); }
+    public static Predicate or(Predicate... operands) { return new Junction(false, java.util.List.of(operands)); }
+    public static Predicate not(Predicate operand) { return new Not(operand); }
+
+    /** Дописує умову в SQL; значення передаються через values у порядку collectValues(). */
+    abstract void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values);
+
+    /** Значення в порядку їх появи в render(). */
+    abstract void collectValues(java.util.List<Object> out);
+
+    /** Описує структуру без значень — частина ключа кешу шаблонів. */
+    abstract void describeShape(java.util.function.Consumer<Object> shape);
+
+    /**
+     * Повертає еквівалентну, але щільнішу умову: згортає константи, об'єднує
+     * діапазони однієї колонки, перетворює OR-ланцюжки на IN, прибирає завжди істинні частини.
+     * Еквівалентність точна в тризначній логіці SQL, тож результат можна безпечно вкладати в NOT.
+     */
+    abstract Predicate simplify();
+
+    /**
+     * Спрощення для верхнього рівня WHERE, де UNKNOWN відкидає рядок так само, як FALSE.
+     * Через AND/OR (але не через NOT) UNKNOWN замінюється на FALSE і згортається далі.
+     */
+    Predicate simplifyFilter() {
+        return simplify().asFilter();
+    }
+
+    Predicate asFilter() {
+        return this;
+    }
+
+    // Пріоритет для розстановки дужок: OR < AND < NOT < атоми
+    int precedence() {
+        return 3;
+    }
+
+    void renderOperand(StringBuilder out, SqlDialect dialect, SqlValueWriter values, Predicate operand) {
+        boolean wrap = operand.precedence() < precedence();
+        out.append(wrap ? "(" : "");
+        operand.render(out, dialect, values);
+        out.append(wrap ? ")" : "");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        render(out, SqlDialect.POSTGRESQL, SqlDialect.POSTGRESQL::appendLiteral);
+        return out.toString();
+    }
+
+    // Порівнює числа та дати/час одного типу; null, якщо порядок у базі може відрізнятися.
+    // Рядки порівнюються за collation колонки (регістр, локаль), якого тут не видно,
+    // тож для них відомо лише, що однакові рядки рівні
+    static Integer compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            // NaN і нескінченності не мають BigDecimal-подання, а їх порядок у базі залежить від СУБД
+            if (!isFinite((Number) a) || !isFinite((Number) b)) {
+                return null;
+            }
+            return new java.math.BigDecimal(a.toString()).compareTo(new java.math.BigDecimal(b.toString()));
+        }
+        if (isOrderedTemporal(a) && a.getClass() == b.getClass()) {
+            @SuppressWarnings("unchecked")
+            Comparable<Object> comparable = (Comparable<Object>) a;
+            return comparable.compareTo(b);
+        }
+        if (a instanceof String && a.equals(b)) {
+            return 0;
+        }
+        return null;
+    }
+
+    // Типи, чий порядок у Java збігається з порядком у базі; OffsetDateTime сюди не входить,
+    // бо compareTo розрізняє однакові моменти з різним зсувом
+    private static boolean isOrderedTemporal(Object value) {
+        return value instanceof java.time.LocalDate || value instanceof java.time.LocalDateTime
+                || value instanceof java.time.LocalTime || value instanceof java.time.Instant;
+    }
+
+    private static boolean isFinite(Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            return Double.isFinite(value.doubleValue());
+        }
+        return true;
+    }
+
+    // Суперечність для колонки: FALSE для будь-якого значення, але UNKNOWN, якщо колонка NULL
+    static Predicate unsatisfiable(String column) {
+        return new Junction(true, java.util.List.of(isNull(column), UNKNOWN));
+    }
+
+    static final class Constant extends Predicate {
+        // null — UNKNOWN
+        final Boolean value;
+
+        Constant(Boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            out.append(name());
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(name());
+        }
+
+        @Override
+        Predicate simplify() {
+            return this;
+        }
+
+        @Override
+        Predicate asFilter() {
+            return value == null ? FALSE : this;
+        }
+
+        private String name() {
+            return value == null ? "NULL" : value ? "TRUE" : "FALSE";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Constant && java.util.Objects.equals(((Constant) o).value, value);
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Objects.hashCode(value);
+        }
+    }
+
+    static final class Comparison extends Predicate {
+        private static final java.util.Set<String> OPERATORS =
+                java.util.Set.of("=", "<>", "<", "<=", ">", ">=", "LIKE", "ILIKE");
+
+        final String column;
+        final String operator;
+        final Object value;
+
+        Comparison(String column, String operator, Object value) {
+            if (!OPERATORS.contains(operator)) {
+                throw new IllegalArgumentException("Непідтримуваний оператор: " + operator);
+            }
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            if ("ILIKE".equals(operator) && dialect != SqlDialect.POSTGRESQL) {
+                out.append("LOWER(").append(column).append(") LIKE LOWER(");
+                values.write(out, value);
+                out.append(')');
+                return;
+            }
+            out.append(column).append(' ').append(operator).append(' ');
+            values.write(out, value);
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+            out.add(value);
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(column);
+            shape.accept(operator);
+        }
+
+        @Override
+        Predicate simplify() {
+            // Порівняння з NULL дає UNKNOWN для будь-якого рядка (і під NOT теж), а не IS NULL
+            return value == null ? UNKNOWN : this;
+        }
+
+        // Заперечення без NOT: a < x стає a >= x тощо
+        Predicate negate() {
+            switch (operator) {
+                case "=": return new Comparison(column, "<>", value);
+                case "<>": return new Comparison(column, "=", value);
+                case "<": return new Comparison(column, ">=", value);
+                case "<=": return new Comparison(column, ">", value);
+                case ">": return new Comparison(column, "<=", value);
+                case ">=": return new Comparison(column, "<", value);
+                default: return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Comparison)) {
+                return false;
+            }
+            Comparison other = (Comparison) o;
+            return column.equals(other.column) && operator.equals(other.operator)
+                    && java.util.Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Objects.hash(column, operator, value);
+        }
+    }
+
+    static final class In extends Predicate {
+        final String column;
+        final Object[] values;
+
+        In(String column, Object[] values) {
+            this.column = column;
+            this.values = values;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter writer) {
+            out.append(column).append(" IN (");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                writer.write(out, values[i]);
+            }
+            out.append(')');
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+            java.util.Collections.addAll(out, values);
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(column);
+            shape.accept("IN");
+            shape.accept(values.length);
+        }
+
+        @Override
+        Predicate simplify() {
+            java.util.Set<Object> distinct = new java.util.LinkedHashSet<>(java.util.Arrays.asList(values));
+            if (distinct.isEmpty()) {
+                return FALSE;
+            }
+            if (distinct.size() == 1) {
+                // IN (NULL) — завжди UNKNOWN; IN (x) — це = x
+                Object value = distinct.iterator().next();
+                return value == null ? UNKNOWN : eq(column, value);
+            }
+            // NULL лишається в списку: "a IN (1, NULL)" дає UNKNOWN замість FALSE, що важливо під NOT
+            return distinct.size() == values.length ? this : new In(column, distinct.toArray());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof In && column.equals(((In) o).column) && java.util.Arrays.equals(values, ((In) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return column.hashCode() * 31 + java.util.Arrays.hashCode(values);
+        }
+    }
+
+    static final class Between extends Predicate {
+        final String column;
+        final Object low;
+        final Object high;
+
+        Between(String column, Object low, Object high) {
+            this.column = column;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            out.append(column).append(" BETWEEN ");
+            values.write(out, low);
+            out.append(" AND ");
+            values.write(out, high);
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+            out.add(low);
+            out.add(high);
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(column);
+            shape.accept("BETWEEN");
+        }
+
+        @Override
+        Predicate simplify() {
+            if (low == null || high == null) {
+                // Межа NULL дає UNKNOWN лише для частини рядків, тож згортається тільки подвійний NULL
+                return low == null && high == null ? UNKNOWN : this;
+            }
+            Integer order = compareValues(low, high);
+            if (order != null && order > 0) {
+                return unsatisfiable(column);
+            }
+            return order != null && order == 0 ? eq(column, low) : this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Between)) {
+                return false;
+            }
+            Between other = (Between) o;
+            return column.equals(other.column) && java.util.Objects.equals(low, other.low)
+                    && java.util.Objects.equals(high, other.high);
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Objects.hash(column, low, high);
+        }
+    }
+
+    static final class IsNull extends Predicate {
+        final String column;
+        final boolean negated;
+
+        IsNull(String column, boolean negated) {
+            this.column = column;
+            this.negated = negated;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            out.append(column).append(negated ? " IS NOT NULL" : " IS NULL");
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(column);
+            shape.accept(negated ? "IS NOT NULL" : "IS NULL");
+        }
+
+        @Override
+        Predicate simplify() {
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IsNull && column.equals(((IsNull) o).column) && negated == ((IsNull) o).negated;
+        }
+
+        @Override
+        public int hashCode() {
+            return column.hashCode() * 2 + (negated ? 1 : 0);
+        }
+    }
+
+    static final class Not extends Predicate {
+        final Predicate operand;
+
+        Not(Predicate operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        int precedence() {
+            return 2;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            out.append("NOT ");
+            renderOperand(out, dialect, values, operand);
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+            operand.collectValues(out);
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept("NOT");
+            operand.describeShape(shape);
+        }
+
+        @Override
+        Predicate simplify() {
+            Predicate inner = operand.simplify();
+            if (inner instanceof Constant) {
+                Boolean value = ((Constant) inner).value;
+                return value == null ? UNKNOWN : value ? FALSE : TRUE;
+            }
+            if (inner instanceof Not) {
+                return ((Not) inner).operand;
+            }
+            if (inner instanceof IsNull) {
+                return new IsNull(((IsNull) inner).column, !((IsNull) inner).negated);
+            }
+            if (inner instanceof Comparison) {
+                Predicate negated = ((Comparison) inner).negate();
+                if (negated != null) {
+                    return negated;
+                }
+            }
+            return inner == operand ? this : new Not(inner);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && operand.equals(((Not) o).operand);
+        }
+
+        @Override
+        public int hashCode() {
+            return ~operand.hashCode();
+        }
+    }
+
+    // AND (conjunction = true) або OR над довільною кількістю операндів
+    static final class Junction extends Predicate {
+        final boolean conjunction;
+        final java.util.List<Predicate> operands;
+
+        Junction(boolean conjunction, java.util.List<Predicate> operands) {
+            this.conjunction = conjunction;
+            this.operands = operands;
+        }
+
+        @Override
+        int precedence() {
+            return conjunction ? 1 : 0;
+        }
+
+        @Override
+        void render(StringBuilder out, SqlDialect dialect, SqlValueWriter values) {
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    out.append(conjunction ? " AND " : " OR ");
+                }
+                renderOperand(out, dialect, values, operands.get(i));
+            }
+        }
+
+        @Override
+        void collectValues(java.util.List<Object> out) {
+            for (Predicate operand : operands) {
+                operand.collectValues(out);
+            }
+        }
+
+        @Override
+        void describeShape(java.util.function.Consumer<Object> shape) {
+            shape.accept(conjunction ? "AND" : "OR");
+            shape.accept(operands.size());
+            for (Predicate operand : operands) {
+                operand.describeShape(shape);
+            }
+        }
+
+        @Override
+        Predicate simplify() {
+            Predicate absorbing = conjunction ? FALSE : TRUE;
+            Predicate neutral = conjunction ? TRUE : FALSE;
+            // Сплющуємо вкладені однотипні вузли та згортаємо константи
+            java.util.List<Predicate> flat = new java.util.ArrayList<>();
+            java.util.ArrayDeque<Predicate> pending = new java.util.ArrayDeque<>(operands);
+            while (!pending.isEmpty()) {
+                Predicate operand = pending.pollFirst().simplify();
+                if (operand instanceof Junction && ((Junction) operand).conjunction == conjunction) {
+                    java.util.List<Predicate> nested = ((Junction) operand).operands;
+                    for (int i = nested.size() - 1; i >= 0; i--) {
+                        pending.addFirst(nested.get(i));
+                    }
+                } else if (operand.equals(absorbing)) {
+                    return absorbing;
+                } else if (!operand.equals(neutral) && !flat.contains(operand)) {
+                    flat.add(operand);
+                }
+            }
+            java.util.List<Predicate> merged = conjunction ? mergeRanges(flat) : mergeAlternatives(flat);
+            if (merged.contains(absorbing)) {
+                return absorbing;
+            }
+            if (merged.isEmpty()) {
+                return neutral;
+            }
+            return merged.size() == 1 ? merged.get(0) : new Junction(conjunction, java.util.List.copyOf(merged));
+        }
+
+        @Override
+        Predicate asFilter() {
+            java.util.List<Predicate> filtered = new java.util.ArrayList<>(operands.size());
+            boolean changed = false;
+            for (Predicate operand : operands) {
+                Predicate reduced = operand.asFilter();
+                changed |= reduced != operand;
+                filtered.add(reduced);
+            }
+            return changed ? new Junction(conjunction, filtered).simplify().asFilter() : this;
+        }
+
+        // AND: межі однієї колонки зводяться до найвужчого діапазону
+        private static java.util.List<Predicate> mergeRanges(java.util.List<Predicate> operands) {
+            java.util.Map<String, Range> ranges = new java.util.LinkedHashMap<>();
+            java.util.List<Object> order = new java.util.ArrayList<>();
+            for (Predicate operand : operands) {
+                String column = rangeColumn(operand);
+                if (column == null) {
+                    order.add(operand);
+                    continue;
+                }
+                Range range = ranges.get(column);
+                if (range == null) {
+                    range = new Range(column);
+                    ranges.put(column, range);
+                    order.add(range);
+                }
+                range.add(operand);
+            }
+            java.util.List<Predicate> result = new java.util.ArrayList<>();
+            for (Object item : order) {
+                if (item instanceof Range) {
+                    ((Range) item).emit(result);
+                } else {
+                    result.add((Predicate) item);
+                }
+            }
+            return result;
+        }
+
+        // OR: рівності однієї колонки стають IN, "a IS NULL OR a IS NOT NULL" — TRUE
+        private static java.util.List<Predicate> mergeAlternatives(java.util.List<Predicate> operands) {
+            java.util.Map<String, java.util.Set<Object>> inValues = new java.util.LinkedHashMap<>();
+            java.util.Map<String, Integer> nullChecks = new java.util.HashMap<>();
+            java.util.List<Object> order = new java.util.ArrayList<>();
+            for (Predicate operand : operands) {
+                if (operand instanceof IsNull) {
+                    IsNull check = (IsNull) operand;
+                    int mask = nullChecks.merge(check.column, check.negated ? 2 : 1, (a, b) -> a | b);
+                    if (mask == 3) {
+                        return java.util.List.of(TRUE);
+                    }
+                }
+                String column = null;
+                java.util.List<Object> values = null;
+                if (operand instanceof Comparison && "=".equals(((Comparison) operand).operator)) {
+                    column = ((Comparison) operand).column;
+                    values = java.util.Collections.singletonList(((Comparison) operand).value);
+                } else if (operand instanceof In) {
+                    column = ((In) operand).column;
+                    values = java.util.Arrays.asList(((In) operand).values);
+                }
+                if (column == null) {
+                    order.add(operand);
+                    continue;
+                }
+                java.util.Set<Object> set = inValues.get(column);
+                if (set == null) {
+                    set = new java.util.LinkedHashSet<>();
+                    inValues.put(column, set);
+                    order.add(column);
+                }
+                set.addAll(values);
+            }
+            java.util.List<Predicate> result = new java.util.ArrayList<>();
+            for (Object item : order) {
+                if (item instanceof String) {
+                    String column = (String) item;
+                    result.add(new In(column, inValues.get(column).toArray()).simplify());
+                } else {
+                    result.add((Predicate) item);
+                }
+            }
+            return result;
+        }
+
+        private static String rangeColumn(Predicate operand) {
+            if (operand instanceof Between) {
+                Between between = (Between) operand;
+                // Межа NULL не звужує діапазон, тож така умова лишається як є
+                return between.low == null || between.high == null ? null : between.column;
+            }
+            if (operand instanceof Comparison) {
+                String operator = ((Comparison) operand).operator;
+                if (!operator.equals("<>") && !operator.contains("LIKE")) {
+                    return ((Comparison) operand).column;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Junction && conjunction == ((Junction) o).conjunction
+                    && operands.equals(((Junction) o).operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return operands.hashCode() * 2 + (conjunction ? 1 : 0);
+        }
+    }
+
+    // Накопичувач меж однієї колонки в межах AND
+    private static final class Range {
+        private final String column;
+        private final java.util.List<Predicate> original = new java.util.ArrayList<>();
+        private Object equal;
+        private boolean hasEqual;
+        private Object lower;
+        private boolean lowerInclusive;
+        private Object upper;
+        private boolean upperInclusive;
+        private boolean contradiction;
+        // Значення різних типів не порівнюються — тоді умови лишаються як є
+        private boolean incomparable;
+
+        Range(String column) {
+            this.column = column;
+        }
+
+        void add(Predicate operand) {
+            original.add(operand);
+            if (operand instanceof Between) {
+                Between between = (Between) operand;
+                tightenLower(between.low, true);
+                tightenUpper(between.high, true);
+                return;
+            }
+            Comparison comparison = (Comparison) operand;
+            switch (comparison.operator) {
+                case "=":
+                    if (hasEqual) {
+                        Integer order = compareValues(equal, comparison.value);
+                        if (order == null) {
+                            incomparable = true;
+                        } else if (order != 0) {
+                            contradiction = true;
+                        }
+                    }
+                    equal = comparison.value;
+                    hasEqual = true;
+                    break;
+                case ">": tightenLower(comparison.value, false); break;
+                case ">=": tightenLower(comparison.value, true); break;
+                case "<": tightenUpper(comparison.value, false); break;
+                default: tightenUpper(comparison.value, true); break;
+            }
+        }
+
+        private void tightenLower(Object value, boolean inclusive) {
+            if (lower == null) {
+                lower = value;
+                lowerInclusive = inclusive;
+                return;
+            }
+            Integer order = compareValues(value, lower);
+            if (order == null) {
+                incomparable = true;
+            } else if (order > 0 || (order == 0 && !inclusive)) {
+                lower = value;
+                lowerInclusive = inclusive;
+            }
+        }
+
+        private void tightenUpper(Object value, boolean inclusive) {
+            if (upper == null) {
+                upper = value;
+                upperInclusive = inclusive;
+                return;
+            }
+            Integer order = compareValues(value, upper);
+            if (order == null) {
+                incomparable = true;
+            } else if (order < 0 || (order == 0 && !inclusive)) {
+                upper = value;
+                upperInclusive = inclusive;
+            }
+        }
+
+        void emit(java.util.List<Predicate> out) {
+            if (incomparable || original.size() == 1) {
+                out.addAll(original);
+                return;
+            }
+            if (contradiction) {
+                addUnsatisfiable(out);
+                return;
+            }
+            if (hasEqual) {
+                Boolean inside = within(equal);
+                if (inside == null) {
+                    out.addAll(original);
+                } else {
+                    if (inside) {
+                        out.add(eq(column, equal));
+                    } else {
+                        addUnsatisfiable(out);
+                    }
+                }
+                return;
+            }
+            if (lower != null && upper != null) {
+                Integer order = compareValues(lower, upper);
+                if (order == null) {
+                    out.addAll(original);
+                } else if (order > 0 || (order == 0 && !(lowerInclusive && upperInclusive))) {
+                    addUnsatisfiable(out);
+                } else if (order == 0) {
+                    out.add(eq(column, lower));
+                } else if (lowerInclusive && upperInclusive) {
+                    out.add(between(column, lower, upper));
+                } else {
+                    out.add(new Comparison(column, lowerInclusive ? ">=" : ">", lower));
+                    out.add(new Comparison(column, upperInclusive ? "<=" : "<", upper));
+                }
+                return;
+            }
+            if (lower != null) {
+                out.add(new Comparison(column, lowerInclusive ? ">=" : ">", lower));
+            } else {
+                out.add(new Comparison(column, upperInclusive ? "<=" : "<", upper));
+            }
+        }
+
+        // Операнди unsatisfiable(column) додаються прямо в поточний AND
+        private void addUnsatisfiable(java.util.List<Predicate> out) {
+            out.add(isNull(column));
+            out.add(UNKNOWN);
+        }
+
+        // null — значення непорівнюване з межами
+        private Boolean within(Object value) {
+            if (lower != null) {
+                Integer order = compareValues(value, lower);
+                if (order == null) {
+                    return null;
+                }
+                if (order < 0 || (order == 0 && !lowerInclusive)) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                Integer order = compareValues(value, upper);
+                if (order == null) {
+                    return null;
+                }
+                if (order > 0 || (order == 0 && !upperInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
+
+/**
+ * Будівельник пакетних INSERT: рядки дописуються одразу в буфер оператора
+ * INSERT ... VALUES (...), (...), і щойно набирається rowsPerStatement рядків,
+ * готовий оператор передається споживачу. Пам'ять обмежена одним оператором.
+ */
+class BatchInsertBuilder {
+
+    private final SqlDialect dialect;
+    private final String[] columns;
+    private final int rowsPerStatement;
+    private final java.util.function.Consumer<String> sink;
+
+    // Спільний префікс "INSERT INTO t (a, b) VALUES " кожного оператора
+    private final String prefix;
+    private final StringBuilder statement = new StringBuilder(4096);
+    private int rowsInStatement;
+    private long statementsEmitted;
+
+    public BatchInsertBuilder(SqlDialect dialect, String table, String[] columns, int rowsPerStatement,
+                              java.util.function.Consumer<String> sink) {
+        if (columns.length == 0 || rowsPerStatement <= 0) {
+            throw new IllegalArgumentException("Потрібні колонки та додатний rowsPerStatement");
+        }
+        this.dialect = dialect;
+        this.columns = columns.clone();
+        this.rowsPerStatement = rowsPerStatement;
+        this.sink = sink;
+        this.prefix = "INSERT INTO " + table + " (" + String.join(", ", this.columns) + ") VALUES ";
+    }
+
+    public static BatchInsertBuilder forPostgreSQL(String table, String[] columns, int rowsPerStatement,
+                                                   java.util.function.Consumer<String> sink) {
+        return new BatchInsertBuilder(SqlDialect.POSTGRESQL, table, columns, rowsPerStatement, sink);
+    }
+
+    public static BatchInsertBuilder forMySQL(String table, String[] columns, int rowsPerStatement,
+                                              java.util.function.Consumer<String> sink) {
+        return new BatchInsertBuilder(SqlDialect.MYSQL, table, columns, rowsPerStatement, sink);
+    }
+
+    /** Додає рядок; значення вбудовуються як літерали з екрануванням діалекту. */
+    public BatchInsertBuilder addRow(Object... values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Очікується " + columns.length + " значень, отримано " + values.length);
+        }
+        statement.append(rowsInStatement == 0 ? prefix : ", ").append('(');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                statement.append(", ");
+            }
+            dialect.appendLiteral(statement, values[i]);
+        }
+        statement.append(')');
+        if (++rowsInStatement == rowsPerStatement) {
+            flush();
+        }
+        return this;
+    }
+
+    /** Передає неповний оператор споживачу; викликати наприкінці пакета. */
+    public void flush() {
+        if (rowsInStatement == 0) {
+            return;
+        }
+        sink.accept(statement.append(';').toString());
+        statement.setLength(0);
+        rowsInStatement = 0;
+        statementsEmitted++;
+    }
+
+    public long getStatementsEmitted() {
+        return statementsEmitted;
+    }
+}
+
+/**
+ * Потоковий кодувальник даних для PostgreSQL COPY ... FROM STDIN у текстовому
+ * або бінарному форматі. Рядки кодуються у буфер фіксованого розміру, який
+ * скидається у вихідний потік, тож весь вміст ніколи не тримається в пам'яті.
+ */
+class PgCopyEncoder implements java.io.Closeable {
+
+    enum Format { TEXT, BINARY }
+
+    // Сигнатура бінарного формату COPY: "PGCOPY\n\377\r\n\0"
+    private static final byte[] BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    // Епоха бінарних date/timestamp у PostgreSQL
+    private static final java.time.LocalDate PG_EPOCH_DATE = java.time.LocalDate.of(2000, 1, 1);
+    private static final long PG_EPOCH_MICROS = java.time.Instant.parse("2000-01-01T00:00:00Z").getEpochSecond() * 1_000_000L;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+    private final java.io.OutputStream out;
+    private final Format format;
+    private final int columnCount;
+    private final java.nio.ByteBuffer buffer;
+    private boolean finished;
+
+    public PgCopyEncoder(java.io.OutputStream out, Format format, int columnCount) throws java.io.IOException {
+        this(out, format, columnCount, 64 * 1024);
+    }
+
+    public PgCopyEncoder(java.io.OutputStream out, Format format, int columnCount, int bufferSize) throws java.io.IOException {
+        this.out = out;
+        this.format = format;
+        this.columnCount = columnCount;
+        this.buffer = java.nio.ByteBuffer.allocate(Math.max(bufferSize, 64));
+        if (format == Format.BINARY) {
+            put(BINARY_SIGNATURE, 0, BINARY_SIGNATURE.length);
+            putInt(0); // прапорці
+            putInt(0); // довжина розширення заголовка
+        }
+    }
+
+    /** Оператор, що відповідає цьому формату. */
+    public static String copyStatement(String table, Format format, String... columns) {
+        return "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN"
+                + (format == Format.BINARY ? " (FORMAT binary)" : "") + ";";
+    }
+
+    public void writeRow(Object... values) throws java.io.IOException {
+        if (values.length != columnCount) {
+            throw new IllegalArgumentException("Очікується " + columnCount + " значень, отримано " + values.length);
+        }
+        if (format == Format.TEXT) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    putByte('\t');
+                }
+                writeText(values[i]);
+            }
+            putByte('\n');
+        } else {
+            // Типи перевіряються до запису, щоб у потік не потрапив обірваний рядок
+            for (Object value : values) {
+                checkBinary(value);
+            }
+            ensure(2);
+            buffer.putShort((short) values.length);
+            for (Object value : values) {
+                writeBinary(value);
+            }
+        }
+    }
 
-/// Лабораторна робота №3
-// Тема: Патерн проектування "Будівельник"
+    /** Дописує завершення даних і скидає буфер; потік не закривається. */
+    public void finish() throws java.io.IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (format == Format.BINARY) {
+            ensure(2);
+            buffer.putShort((short) -1);
+        }
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws java.io.IOException {
+        finish();
+    }
+
+    private void writeText(Object value) throws java.io.IOException {
+        if (value == null) {
+            putByte('\\');
+            putByte('N');
+        } else if (value instanceof Boolean) {
+            putByte((Boolean) value ? 't' : 'f');
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            putDecimal(((Number) value).longValue());
+        } else if (value instanceof byte[]) {
+            // bytea у hex-форматі \x...; зворотна коса подвоюється за правилами текстового COPY
+            byte[] bytes = (byte[]) value;
+            putByte('\\');
+            putByte('\\');
+            putByte('x');
+            for (byte b : bytes) {
+                ensure(2);
+                buffer.put(HEX[(b >> 4) & 0xf]).put(HEX[b & 0xf]);
+            }
+        } else {
+            // Екрануємо роздільники та зворотну косу, як вимагає текстовий формат COPY
+            CharSequence text = value instanceof CharSequence ? (CharSequence) value : value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\\': putByte('\\'); putByte('\\'); break;
+                    case '\t': putByte('\\'); putByte('t'); break;
+                    case '\n': putByte('\\'); putByte('n'); break;
+                    case '\r': putByte('\\'); putByte('r'); break;
+                    default: i = putUtf8(text, i);
+                }
+            }
+        }
+    }
+
+    private void writeBinary(Object value) throws java.io.IOException {
+        if (value == null) {
+            putInt(-1);
+        } else if (value instanceof Integer) {
+            putInt(4);
+            putInt((Integer) value);
+        } else if (value instanceof Long) {
+            ensure(12);
+            buffer.putInt(8).putLong((Long) value);
+        } else if (value instanceof Short) {
+            ensure(6);
+            buffer.putInt(2).putShort((Short) value);
+        } else if (value instanceof Double) {
+            ensure(12);
+            buffer.putInt(8).putDouble((Double) value);
+        } else if (value instanceof Float) {
+            ensure(8);
+            buffer.putInt(4).putFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            ensure(5);
+            buffer.putInt(1).put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            putInt(bytes.length);
+            put(bytes, 0, bytes.length);
+        } else if (value instanceof java.util.UUID) {
+            java.util.UUID uuid = (java.util.UUID) value;
+            ensure(20);
+            buffer.putInt(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        } else if (value instanceof java.time.LocalDate) {
+            ensure(8);
+            buffer.putInt(4).putInt((int) java.time.temporal.ChronoUnit.DAYS.between(PG_EPOCH_DATE, (java.time.LocalDate) value));
+        } else if (value instanceof java.time.LocalDateTime) {
+            // timestamp: мікросекунди від 2000-01-01 без часової зони
+            writeTimestamp(((java.time.LocalDateTime) value).toInstant(java.time.ZoneOffset.UTC));
+        } else if (value instanceof java.time.Instant || value instanceof java.time.OffsetDateTime) {
+            // timestamptz: ті самі мікросекунди, відлічені в UTC
+            writeTimestamp(value instanceof java.time.Instant
+                    ? (java.time.Instant) value : ((java.time.OffsetDateTime) value).toInstant());
+        } else if (value instanceof java.math.BigDecimal || value instanceof java.math.BigInteger) {
+            writeNumeric(value instanceof java.math.BigDecimal
+                    ? (java.math.BigDecimal) value : new java.math.BigDecimal((java.math.BigInteger) value));
+        } else {
+            // Рядки йдуть як є: бінарне подання text/varchar — це їх UTF-8
+            CharSequence text = (CharSequence) value;
+            putInt(utf8Length(text));
+            for (int i = 0; i < text.length(); i++) {
+                i = putUtf8(text, i);
+            }
+        }
+    }
+
+    // Бінарний COPY не приймає текст для numeric, date, uuid тощо, тож непідтримувані типи відхиляються
+    private static void checkBinary(Object value) {
+        if (value == null || value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Double || value instanceof Float || value instanceof Boolean
+                || value instanceof byte[] || value instanceof CharSequence || value instanceof java.util.UUID
+                || value instanceof java.time.LocalDate || value instanceof java.time.LocalDateTime
+                || value instanceof java.time.Instant || value instanceof java.time.OffsetDateTime
+                || value instanceof java.math.BigDecimal || value instanceof java.math.BigInteger) {
+            return;
+        }
+        throw new IllegalArgumentException("Бінарний COPY не підтримує тип " + value.getClass().getName()
+                + "; використайте Format.TEXT або перетворіть значення");
+    }
+
+    private void writeTimestamp(java.time.Instant instant) throws java.io.IOException {
+        long micros = Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+        ensure(12);
+        buffer.putInt(8).putLong(micros - PG_EPOCH_MICROS);
+    }
+
+    // numeric: цифри за основою 10000, вага першої цифри, знак і кількість знаків після коми
+    private void writeNumeric(java.math.BigDecimal value) throws java.io.IOException {
+        int scale = Math.max(value.scale(), 0);
+        String digits = value.abs().setScale(scale).unscaledValue().toString();
+        // Доповнюємо нулями, щоб ціла й дробова частини ділилися на групи по 4 цифри
+        int fraction = (scale + 3) / 4 * 4;
+        int integer = Math.max(digits.length() - scale, 0);
+        int integerPadded = (integer + 3) / 4 * 4;
+        StringBuilder padded = new StringBuilder(integerPadded + fraction);
+        for (int i = integer; i < integerPadded; i++) {
+            padded.append('0');
+        }
+        for (int i = digits.length(); i < scale; i++) {
+            padded.append('0');
+        }
+        padded.append(digits);
+        for (int i = scale; i < fraction; i++) {
+            padded.append('0');
+        }
+        int groups = padded.length() / 4;
+        int weight = integerPadded / 4 - 1;
+        int first = 0;
+        int last = groups;
+        while (first < last && isZeroGroup(padded, first)) {
+            first++;
+            weight--;
+        }
+        while (last > first && isZeroGroup(padded, last - 1)) {
+            last--;
+        }
+        int count = last - first;
+        ensure(12);
+        buffer.putInt(8 + count * 2)
+                .putShort((short) count)
+                .putShort((short) (count == 0 ? 0 : weight))
+                .putShort((short) (value.signum() < 0 ? 0x4000 : 0))
+                .putShort((short) scale);
+        for (int group = first; group < last; group++) {
+            ensure(2);
+            buffer.putShort((short) Integer.parseInt(padded, group * 4, group * 4 + 4, 10));
+        }
+    }
+
+    private static boolean isZeroGroup(CharSequence digits, int group) {
+        for (int i = group * 4; i < group * 4 + 4; i++) {
+            if (digits.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Кодує символ (або сурогатну пару) в UTF-8; повертає індекс останнього використаного символу
+    private int putUtf8(CharSequence text, int i) throws java.io.IOException {
+        char c = text.charAt(i);
+        ensure(4);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, text.charAt(++i));
+            buffer.put((byte) (0xf0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3f))
+                    .put((byte) (0x80 | cp >> 6 & 0x3f)).put((byte) (0x80 | cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            // Непарний сурогат замінюється на '?', як у String.getBytes(UTF_8)
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f)).put((byte) (0x80 | c & 0x3f));
+        }
+        return i;
+    }
+
+    private static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    private void putDecimal(long value) throws java.io.IOException {
+        if (value == Long.MIN_VALUE) {
+            String text = Long.toString(value);
+            put(text.getBytes(java.nio.charset.StandardCharsets.US_ASCII), 0, text.length());
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // Цифри записані у зворотному порядку — розвертаємо на місці
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte tmp = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, tmp);
+        }
+    }
+
+    private void putByte(char c) throws java.io.IOException {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void putInt(int value) throws java.io.IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws java.io.IOException {
+        while (length > 0) {
+            ensure(1);
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensure(int bytes) throws java.io.IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws java.io.IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+}
 
 /**
- * Інтерфейс QueryBuilder (Builder). 
- * Визначає спільний інтерфейс для всіх конкретних будівельників.
+ * Профайлер форм запитів: групує SQL за формою (літерали та заповнювачі замінено на ?)
+ * і веде для кожної форми лічильники, гістограму затримок та статистику рядків.
+ * Кількість форм обмежена алгоритмом Space-Saving: під тиском нових форм витісняються
+ * найрідші, тож часті форми гарантовано лишаються в топі. Вимкнений профайлер не вимірює нічого.
  */
-interface QueryBuilder {
+class QueryProfiler {
 
-    /** Додає частину SELECT <columns> FROM <table> до запиту. */
-    QueryBuilder select(String table, String... columns);
+    // Гістограма з межами-степенями двійки: кошик i містить затримки до 2^i нс
+    private static final int BUCKETS = 40;
 
-    /** Додає частину WHERE <condition> до запиту. */
-    QueryBuilder where(String condition);
+    // Скільки шаблонів будівельників запам'ятовувати разом з їх нормалізованою формою
+    private static final int MAX_TEMPLATES = 10_000;
 
-    /** Додає частину LIMIT <limit> до запиту. */
-    QueryBuilder limit(int limit);
+    private final SqlDialect dialect;
+    // Мін-купа за count: форма з найменшим лічильником, яку витісняє нова, завжди в entries[0]
+    private final Entry[] entries;
+    private final Entry[] table;
+    private int size;
+    private volatile boolean enabled = true;
 
-    /** Повертає кінцевий сформований SQL-запит. */
-    String getSQL();
+    // Власний кеш шаблонів: запити з літералами в where(String) не заповнюють спільний кеш будівельників
+    private final SqlTemplateCache templates = new SqlTemplateCache(MAX_TEMPLATES);
+
+    // Шаблони будівельників повторюються, тож нормалізуються один раз
+    private final java.util.concurrent.ConcurrentHashMap<String, String> templateShapes =
+            new java.util.concurrent.ConcurrentHashMap<>();
+
+    /**
+     * @param capacity скільки форм відстежувати одночасно
+     * @param dialect  визначає правила екранування рядкових літералів під час нормалізації
+     */
+    public QueryProfiler(int capacity, SqlDialect dialect) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity має бути додатним");
+        }
+        this.dialect = dialect;
+        this.entries = new Entry[capacity];
+        this.table = new Entry[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Виконує запит будівельника через executor і записує затримку та кількість рядків.
+     * Помилка виконання рахується для форми й прокидається далі.
+     */
+    public <T> T execute(QueryBuilder builder, java.util.function.Function<BoundQuery, T> executor,
+                         java.util.function.ToLongFunction<? super T> rowCount) {
+        BoundQuery query = builder.bind();
+        if (!enabled) {
+            return executor.apply(query);
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = executor.apply(query);
+        } catch (RuntimeException | Error e) {
+            record(templateShape(query.getSql()), Kind.FAILURE, System.nanoTime() - start, 0);
+            throw e;
+        }
+        record(templateShape(query.getSql()), Kind.EXECUTION, System.nanoTime() - start, rowCount.applyAsLong(result));
+        return result;
+    }
+
+    /** Записує час рендерингу поточного запиту builder під формою його шаблону. */
+    void recordRender(QueryBuilder builder, long nanos) {
+        String template = builder instanceof AbstractQueryBuilder
+                ? ((AbstractQueryBuilder) builder).template(templates)
+                : builder.bind().getSql();
+        record(templateShape(template), Kind.RENDER, nanos, 0);
+    }
+
+    /**
+     * Записує виконання довільного SQL, виміряне зовні (наприклад, драйвером).
+     * Текст нормалізується на кожен виклик, тож для запитів будівельників краще execute().
+     */
+    public void recordExecution(CharSequence sql, long nanos, long rows) {
+        if (enabled) {
+            StringBuilder shape = new StringBuilder(sql.length());
+            normalize(sql, 0, sql.length(), dialect, shape);
+            record(shape.toString(), Kind.EXECUTION, nanos, rows);
+        }
+    }
+
+    private enum Kind { RENDER, EXECUTION, FAILURE }
+
+    private String templateShape(String template) {
+        String shape = templateShapes.get(template);
+        if (shape == null) {
+            StringBuilder out = new StringBuilder(template.length());
+            normalize(template, 0, template.length(), dialect, out);
+            shape = out.toString();
+            // Після заповнення нові шаблони нормалізуються щоразу, але пам'ять не росте
+            if (templateShapes.size() < MAX_TEMPLATES) {
+                String existing = templateShapes.putIfAbsent(template, shape);
+                shape = existing != null ? existing : shape;
+            }
+        }
+        return shape;
+    }
+
+    private void record(String shape, Kind kind, long nanos, long rows) {
+        int hash = shape.hashCode();
+        synchronized (this) {
+            Entry entry = find(shape, hash);
+            if (entry == null) {
+                entry = admit(shape, hash);
+            }
+            entry.count++;
+            siftDown(entry.index);
+            switch (kind) {
+                case RENDER:
+                    entry.renders++;
+                    entry.renderNanos += nanos;
+                    break;
+                case FAILURE:
+                    entry.failures++;
+                    break;
+                default:
+                    entry.executions++;
+                    entry.executionNanos += nanos;
+                    entry.maxNanos = Math.max(entry.maxNanos, nanos);
+                    entry.histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+                    entry.rows += rows;
+                    entry.maxRows = Math.max(entry.maxRows, rows);
+                    break;
+            }
+        }
+    }
+
+    private Entry find(String shape, int hash) {
+        for (Entry entry = table[hash & (table.length - 1)]; entry != null; entry = entry.next) {
+            if (entry.hash == hash && entry.shape.equals(shape)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // Нова форма займає вільне місце або витісняє форму з найменшим лічильником,
+    // успадковуючи його як верхню оцінку похибки (Space-Saving)
+    private Entry admit(String shape, int hash) {
+        Entry entry;
+        if (size < entries.length) {
+            entry = new Entry();
+            entry.index = size;
+            entries[size++] = entry;
+            siftUp(entry.index);
+        } else {
+            entry = entries[0];
+            unlink(entry);
+            long inherited = entry.count;
+            entry.clear();
+            entry.count = inherited;
+            entry.error = inherited;
+        }
+        entry.shape = shape;
+        entry.hash = hash;
+        int bucket = hash & (table.length - 1);
+        entry.next = table[bucket];
+        table[bucket] = entry;
+        return entry;
+    }
+
+    // Лічильники лише ростуть, тож після інкременту запис може тільки опуститися в купі
+    private void siftDown(int index) {
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && entries[child + 1].count < entries[child].count) {
+                child++;
+            }
+            if (entries[child].count >= entries[index].count) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (entries[parent].count <= entries[index].count) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Entry entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+        entries[i].index = i;
+        entries[j].index = j;
+    }
+
+    private void unlink(Entry entry) {
+        int bucket = entry.hash & (table.length - 1);
+        if (table[bucket] == entry) {
+            table[bucket] = entry.next;
+            return;
+        }
+        for (Entry previous = table[bucket]; previous != null; previous = previous.next) {
+            if (previous.next == entry) {
+                previous.next = entry.next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Приводить SQL до форми: рядкові й числові літерали та заповнювачі ($1, ?) стають ?,
+     * списки значень (?, ?, ?) згортаються в (?), послідовності пробілів — в один пробіл.
+     */
+    static void normalize(CharSequence sql, int from, int to, SqlDialect dialect, StringBuilder out) {
+        boolean backslashEscapes = dialect == SqlDialect.MYSQL;
+        // Чи є попередній символ частиною ідентифікатора: цифри в table2 чи col_1 не є літералом
+        boolean identifier = false;
+        // Незмінні символи копіюються в out цілими відрізками [run, i)
+        int run = from;
+        int i = from;
+        while (i < to) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                out.append(sql, run, i);
+                i = stringEnd(sql, i + 1, to, backslashEscapes);
+                appendPlaceholder(out);
+                run = i;
+                identifier = false;
+            } else if (c <= ' ') {
+                // Одиночний пробіл після значущого символу лишається у відрізку
+                if (c != ' ' || i == from || sql.charAt(i - 1) <= ' ' || (i + 1 < to && sql.charAt(i + 1) <= ' ')) {
+                    out.append(sql, run, i);
+                    while (i < to && sql.charAt(i) <= ' ') {
+                        i++;
+                    }
+                    if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                        out.append(' ');
+                    }
+                    run = i;
+                } else {
+                    i++;
+                }
+                identifier = false;
+            } else if (!identifier && (isDigit(c) || c == '?' || (c == '$' && i + 1 < to && isDigit(sql.charAt(i + 1))))) {
+                out.append(sql, run, i);
+                i++;
+                while (i < to && (isDigit(c = sql.charAt(i)) || c == '.' || c == 'e' || c == 'E')) {
+                    i++;
+                }
+                appendPlaceholder(out);
+                run = i;
+            } else {
+                i++;
+                identifier = isDigit(c) || c == '_' || c == '$' || (c | 0x20) >= 'a' && (c | 0x20) <= 'z' || c > 0x7f;
+            }
+        }
+        out.append(sql, run, to);
+    }
+
+    // Позиція після закриваючого апострофа рядкового літерала
+    private static int stringEnd(CharSequence sql, int i, int to, boolean backslashEscapes) {
+        while (i < to) {
+            char c = sql.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+            } else if (c != '\'') {
+                i++;
+            } else if (i + 1 < to && sql.charAt(i + 1) == '\'') {
+                i += 2;
+            } else {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Наступне значення списку після "?, " зливається з попереднім
+    private static void appendPlaceholder(StringBuilder out) {
+        int length = out.length();
+        if (length >= 3 && out.charAt(length - 1) == ' ' && out.charAt(length - 2) == ','
+                && out.charAt(length - 3) == '?') {
+            out.setLength(length - 2);
+            return;
+        }
+        if (length >= 2 && out.charAt(length - 1) == ',' && out.charAt(length - 2) == '?') {
+            out.setLength(length - 1);
+            return;
+        }
+        out.append('?');
+    }
+
+    /** Знімок статистики всіх відстежуваних форм. */
+    public synchronized java.util.List<ShapeStats> snapshot() {
+        java.util.List<ShapeStats> result = new java.util.ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new ShapeStats(entries[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Звіт про найдорожчі форми: сортування за сумарним часом виконання,
+     * до limit рядків. Форми з p95 вище slowNanos позначаються як SLOW.
+     */
+    public String report(int limit, long slowNanos) {
+        java.util.List<ShapeStats> stats = snapshot();
+        stats.sort(java.util.Comparator.comparingLong(ShapeStats::getTotalNanos).reversed());
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-5s %8s %8s %6s %10s %10s %10s %9s  %s%n",
+                "", "renders", "execs", "errors", "mean us", "p95 us", "max us", "avg rows", "shape"));
+        for (int i = 0; i < Math.min(limit, stats.size()); i++) {
+            ShapeStats shape = stats.get(i);
+            out.append(String.format("%-5s %8d %8d %6d %10.1f %10.1f %10.1f %9.1f  %s%n",
+                    shape.getP95Nanos() > slowNanos ? "SLOW" : "",
+                    shape.getRenders(), shape.getExecutions(), shape.getFailures(),
+                    shape.getMeanNanos() / 1000.0, shape.getP95Nanos() / 1000.0, shape.getMaxNanos() / 1000.0,
+                    shape.getAverageRows(), shape.getShape()));
+        }
+        return out.toString();
+    }
+
+    private static final class Entry {
+        String shape;
+        int hash;
+        Entry next;
+        // Позиція в купі entries
+        int index;
+        long count;
+        long error;
+        long renders;
+        long renderNanos;
+        long executions;
+        long failures;
+        long executionNanos;
+        long maxNanos;
+        long rows;
+        long maxRows;
+        final long[] histogram = new long[BUCKETS];
+
+        void clear() {
+            count = error = renders = renderNanos = executions = failures = 0;
+            executionNanos = maxNanos = rows = maxRows = 0;
+            java.util.Arrays.fill(histogram, 0);
+        }
+    }
+
+    /** Незмінний знімок статистики однієї форми. */
+    static final class ShapeStats {
+        private final String shape;
+        private final long count;
+        private final long error;
+        private final long renders;
+        private final long renderNanos;
+        private final long executions;
+        private final long failures;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long rows;
+        private final long maxRows;
+        private final long p95Nanos;
+
+        private ShapeStats(Entry entry) {
+            shape = entry.shape;
+            count = entry.count;
+            error = entry.error;
+            renders = entry.renders;
+            renderNanos = entry.renderNanos;
+            executions = entry.executions;
+            failures = entry.failures;
+            totalNanos = entry.executionNanos;
+            maxNanos = entry.maxNanos;
+            rows = entry.rows;
+            maxRows = entry.maxRows;
+            p95Nanos = percentile(entry.histogram, entry.executions, 0.95, entry.maxNanos);
+        }
+
+        // Верхня межа кошика, в який потрапляє перцентиль, але не більше за максимум
+        private static long percentile(long[] histogram, long total, double quantile, long max) {
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max, i == 0 ? 0 : 1L << i);
+                }
+            }
+            return max;
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        /** Оцінка кількості звернень до форми; завищена щонайбільше на getError(). */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public long getRenders() {
+            return renders;
+        }
+
+        public double getMeanRenderNanos() {
+            return renders == 0 ? 0 : (double) renderNanos / renders;
+        }
+
+        public long getExecutions() {
+            return executions;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getMeanNanos() {
+            return executions == 0 ? 0 : (double) totalNanos / executions;
+        }
+
+        public long getP95Nanos() {
+            return p95Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getAverageRows() {
+            return executions == 0 ? 0 : (double) rows / executions;
+        }
+
+        public long getMaxRows() {
+            return maxRows;
+        }
+
+        @Override
+        public String toString() {
+            return "ShapeStats{shape='" + shape + "', count=" + count + ", executions=" + executions
+                    + ", p95Nanos=" + p95Nanos + ", avgRows=" + getAverageRows() + "}";
+        }
+    }
 }
 
 /**
- * Конкретний будівельник для PostgreSQL.
- * Зберігає частини запиту і реалізує логіку збирання.
+ * Декоратор будівельника, що вимірює getSQL()/renderTo() і записує їх у QueryProfiler
+ * під формою шаблону запиту (з власного кешу профайлера, без звернень до bind()).
+ * Виклики ланцюжка повертають сам декоратор, тож його можна підставити замість будь-якого QueryBuilder.
  */
-class PostgreSQLQueryBuilder implements QueryBuilder {
+class ProfilingQueryBuilder implements QueryBuilder {
 
-    // Внутрішній стан для зберігання частин запиту
-    private String selectPart = "";
-    private String wherePart = "";
-    private String limitPart = "";
+    private final QueryBuilder delegate;
+    private final QueryProfiler profiler;
+
+    ProfilingQueryBuilder(QueryBuilder delegate, QueryProfiler profiler) {
+        this.delegate = delegate;
+        this.profiler = profiler;
+    }
 
     @Override
     public QueryBuilder select(String table, String... columns) {
-        // Формуємо список колонок через кому
-        String columnList = String.join(", ", columns);
-        this.selectPart = "SELECT " + columnList + " FROM " + table;
-        return this; // Повертаємо this для ланцюгового виклику
+        delegate.select(table, columns);
+        return this;
     }
 
     @Override
     public QueryBuilder where(String condition) {
-        if (condition != null && !condition.isEmpty()) {
-            this.wherePart = " WHERE " + condition;
-        }
-        return this; // Повертаємо this для ланцюгового виклику
+        delegate.where(condition);
+        return this;
     }
 
     @Override
-    public QueryBuilder limit(int limit) {
-        // PostgreSQL використовує синтаксис LIMIT
-        if (limit > 0) {
-            this.limitPart = " LIMIT " + limit;
-        }
-        return this; // Повертаємо this для ланцюгового виклику
+    public QueryBuilder where(String column, String operator, Object value) {
+        delegate.where(column, operator, value);
+        return this;
     }
 
     @Override
-    public String getSQL() {
-        // Збираємо усі частини запиту
-        return selectPart + wherePart + limitPart + ";";
+    public QueryBuilder where(Predicate predicate) {
+        delegate.where(predicate);
+        return this;
     }
-}
 
-/**
- * Конкретний будівельник для MySQL.
- * Реалізує логіку збирання, дозволяючи специфічні відмінності.
- */
-class MySQLQueryBuilder implements QueryBuilder {
+    @Override
+    public QueryBuilder limit(int limit) {
+        delegate.limit(limit);
+        return this;
+    }
 
-    // Внутрішній стан для зберігання частин запиту
-    private String selectPart = "";
-    private String wherePart = "";
-    private String limitPart = "";
+    @Override
+    public QueryBuilder orderBy(String column, boolean ascending) {
+        delegate.orderBy(column, ascending);
+        return this;
+    }
 
     @Override
-    public QueryBuilder select(String table, String... columns) {
-        // Формуємо список колонок через кому
-        String columnList = String.join(", ", columns);
-        this.selectPart = "SELECT " + columnList + " FROM " + table;
-        return this; // Повертаємо this
+    public QueryBuilder seekAfter(Object... lastKeyValues) {
+        delegate.seekAfter(lastKeyValues);
+        return this;
     }
 
     @Override
-    public QueryBuilder where(String condition) {
-        if (condition != null && !condition.isEmpty()) {
-            this.wherePart = " WHERE " + condition;
+    public String getSQL() {
+        if (!profiler.isEnabled()) {
+            return delegate.getSQL();
         }
-        return this; // Повертаємо this
+        long start = System.nanoTime();
+        String sql = delegate.getSQL();
+        long nanos = System.nanoTime() - start;
+        // Форма береться з шаблону: він кешований, тож текст запиту не розбирається щоразу
+        profiler.recordRender(delegate, nanos);
+        return sql;
     }
 
     @Override
-    public QueryBuilder limit(int limit) {
-        // MySQL також використовує синтаксис LIMIT
-        if (limit > 0) {
-            this.limitPart = " LIMIT " + limit;
+    public StringBuilder renderTo(StringBuilder out) {
+        if (!profiler.isEnabled()) {
+            return delegate.renderTo(out);
         }
-        return this; // Повертаємо this
+        long start = System.nanoTime();
+        delegate.renderTo(out);
+        long nanos = System.nanoTime() - start;
+        profiler.recordRender(delegate, nanos);
+        return out;
     }
 
     @Override
-    public String getSQL() {
-        // Збираємо усі частини запиту
-        return selectPart + wherePart + limitPart + ";";
+    public java.nio.CharBuffer renderTo(java.nio.CharBuffer out) {
+        if (!profiler.isEnabled()) {
+            return delegate.renderTo(out);
+        }
+        long start = System.nanoTime();
+        delegate.renderTo(out);
+        long nanos = System.nanoTime() - start;
+        profiler.recordRender(delegate, nanos);
+        return out;
+    }
+
+    @Override
+    public QueryBuilder reset() {
+        delegate.reset();
+        return this;
+    }
+
+    @Override
+    public BoundQuery bind() {
+        return delegate.bind();
     }
 }
 
@@ -146,11 +2625,209 @@ public class BuilderDemo {
         System.out.println("\n=== Демонстрація гнучкості (запит без LIMIT) ===");
         
         String partialQuery = postgresBuilder
+                .reset()
                 .select("orders", "order_id", "date")
                 .where("date > '2025-01-01'")
                 .getSQL(); 
                 
         System.out.println("PostgreSQL Query:\n" + partialQuery);
         // Очікуваний результат: SELECT order_id, date FROM orders WHERE date > '2025-01-01';
+
+        System.out.println("\n=== Збирання у власний буфер без проміжних рядків ===");
+
+        StringBuilder buffer = new StringBuilder(256);
+        String[] userColumns = {"id", "name"};
+        for (int page = 1; page <= 2; page++) {
+            buffer.setLength(0);
+            postgresBuilder.reset()
+                    .select("users", userColumns)
+                    .where("status = 'active'")
+                    .limit(page * 10)
+                    .renderTo(buffer);
+            System.out.println(buffer);
+        }
+
+        System.out.println("\n=== Параметризовані запити та кеш шаблонів ===");
+
+        QueryBuilder mysqlParams = new MySQLQueryBuilder();
+        for (int minPrice : new int[] {100, 200, 300}) {
+            BoundQuery query = mysqlParams.reset()
+                    .select("products", "id", "title", "price")
+                    .where("price", ">", minPrice)
+                    .where("title", "LIKE", "O'Reilly%")
+                    .limit(10)
+                    .bind();
+            System.out.println(query);
+        }
+        System.out.println("Inline: " + mysqlParams.getSQL());
+        System.out.println(SqlTemplateCache.shared());
+
+        System.out.println("\n=== Keyset-пагінація ===");
+
+        for (QueryBuilder builder : new QueryBuilder[] {new PostgreSQLQueryBuilder(), new MySQLQueryBuilder()}) {
+            BoundQuery nextPage = builder
+                    .select("orders", "order_id", "date")
+                    .orderBy("date", true)
+                    .orderBy("order_id", true)
+                    .seekAfter("2025-01-01", 1042)
+                    .limit(20)
+                    .bind();
+            System.out.println(nextPage);
+            System.out.println(builder.getSQL());
+        }
+
+        System.out.println("\n=== Типізовані умови та їх спрощення ===");
+
+        Predicate filter = Predicate.and(
+                Predicate.ge("price", 10), Predicate.le("price", 100), Predicate.gt("price", 20),
+                Predicate.or(Predicate.eq("category", "books"), Predicate.eq("category", "music")),
+                Predicate.not(Predicate.isNull("title")),
+                Predicate.ilike("title", "%java%"),
+                Predicate.TRUE);
+        System.out.println("До спрощення: " + filter);
+        System.out.println("Після: " + filter.simplify());
+        for (QueryBuilder builder : new QueryBuilder[] {new PostgreSQLQueryBuilder(), new MySQLQueryBuilder()}) {
+            System.out.println(builder.select("products", "id", "title").where(filter).limit(10).bind());
+        }
+        System.out.println(new MySQLQueryBuilder().select("products", "id")
+                .where(Predicate.and(Predicate.gt("price", 50), Predicate.lt("price", 10))).getSQL());
+
+        System.out.println("\n=== Профайлер форм запитів ===");
+
+        QueryProfiler profiler = new QueryProfiler(64, SqlDialect.POSTGRESQL);
+        QueryBuilder profiled = new ProfilingQueryBuilder(new PostgreSQLQueryBuilder(), profiler);
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 1_000; i++) {
+            profiled.reset().select("users", "id", "name").where("id > " + i + " AND status = 'active'").limit(10).getSQL();
+            int customer = random.nextInt(1_000);
+            // Імітація виконання: звіт за сотнею замовлень повільніший і повертає більше рядків
+            profiler.execute(profiled.reset().select("orders", "id").where(Predicate.eq("customer_id", customer)),
+                    query -> (long) random.nextInt(20), Long::longValue);
+            if (i % 10 == 0) {
+                profiler.execute(profiled.reset().select("orders", "id").where(Predicate.in("status", "new", "paid")).limit(100),
+                        query -> {
+                            java.util.concurrent.locks.LockSupport.parkNanos(200_000);
+                            return 100L;
+                        }, Long::longValue);
+            }
+        }
+        System.out.print(profiler.report(5, 100_000));
+
+        System.out.println("\n=== Пакетна вставка ===");
+
+        String[] productColumns = {"id", "title", "price"};
+        BatchInsertBuilder batch = BatchInsertBuilder.forMySQL("products", productColumns, 2, System.out::println);
+        batch.addRow(1, "Keyboard", 25.5).addRow(2, "Mouse", 12).addRow(3, "Monitor \\ 27\"", 199.99);
+        batch.flush();
+
+        String[] eventColumns = {"id", "payload"};
+        System.out.println(PgCopyEncoder.copyStatement("events", PgCopyEncoder.Format.TEXT, eventColumns));
+        java.io.ByteArrayOutputStream copyData = new java.io.ByteArrayOutputStream();
+        try (PgCopyEncoder copy = new PgCopyEncoder(copyData, PgCopyEncoder.Format.TEXT, eventColumns.length)) {
+            copy.writeRow(1L, "login\tok");
+            copy.writeRow(2L, null);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+        System.out.print(copyData.toString(java.nio.charset.StandardCharsets.UTF_8));
+    }
+}
+
+/**
+ * Порівняння виділення пам'яті на запит: конкатенація рядків (попередня реалізація)
+ * проти збирання у буфер, що перевикористовується.
+ * Запуск: java -cp <out> QueryBuilderAllocationBenchmark
+ */
+class QueryBuilderAllocationBenchmark {
+
+    private static final int QUERIES = 2_000_000;
+
+    public static void main(String[] args) {
+        String[] columns = {"id", "name", "email"};
+        QueryBuilder builder = new PostgreSQLQueryBuilder();
+        StringBuilder buffer = new StringBuilder(256);
+        long checksum = 0;
+
+        for (int round = 0; round < 3; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < QUERIES; i++) {
+                checksum += concatenate("users", columns, "id > 10 AND status = 'active'", i % 100 + 1).length();
+            }
+            long concatBytes = allocatedBytes() - before;
+
+            before = allocatedBytes();
+            for (int i = 0; i < QUERIES; i++) {
+                checksum += builder.reset().select("users", columns).where("id > 10 AND status = 'active'")
+                        .limit(i % 100 + 1).getSQL().length();
+            }
+            long getSqlBytes = allocatedBytes() - before;
+
+            before = allocatedBytes();
+            for (int i = 0; i < QUERIES; i++) {
+                buffer.setLength(0);
+                checksum += builder.reset().select("users", columns).where("id > 10 AND status = 'active'")
+                        .limit(i % 100 + 1).renderTo(buffer).length();
+            }
+            long renderBytes = allocatedBytes() - before;
+
+            System.out.printf("round %d: concatenation %.1f B/query, getSQL %.1f B/query, renderTo %.1f B/query%n",
+                    round, (double) concatBytes / QUERIES, (double) getSqlBytes / QUERIES, (double) renderBytes / QUERIES);
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    // Відтворює попередню реалізацію на конкатенації рядків
+    private static String concatenate(String table, String[] columns, String condition, int limit) {
+        String selectPart = "SELECT " + String.join(", ", columns) + " FROM " + table;
+        String wherePart = " WHERE " + condition;
+        String limitPart = " LIMIT " + limit;
+        return selectPart + wherePart + limitPart + ";";
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
+
+/**
+ * Вимірює накладні витрати QueryProfiler на один запит (рендеринг + запис форми).
+ * Запуск: java QueryProfilerBenchmark
+ */
+class QueryProfilerBenchmark {
+
+    private static final int QUERIES = 2_000_000;
+
+    public static void main(String[] args) {
+        String[] columns = {"id", "name", "email"};
+        QueryProfiler profiler = new QueryProfiler(1_000, SqlDialect.POSTGRESQL);
+        QueryBuilder plain = new PostgreSQLQueryBuilder();
+        QueryBuilder profiled = new ProfilingQueryBuilder(new PostgreSQLQueryBuilder(), profiler);
+        StringBuilder buffer = new StringBuilder(256);
+        long checksum = 0;
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                buffer.setLength(0);
+                checksum += plain.reset().select("users", columns).where("id > 10 AND status = 'active'")
+                        .where("age", ">=", i % 90).limit(i % 100 + 1).renderTo(buffer).length();
+            }
+            long plainNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                buffer.setLength(0);
+                checksum += profiled.reset().select("users", columns).where("id > 10 AND status = 'active'")
+                        .where("age", ">=", i % 90).limit(i % 100 + 1).renderTo(buffer).length();
+            }
+            long profiledNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d: plain %.0f ns/query, profiled %.0f ns/query, overhead %.0f ns/query%n",
+                    round, (double) plainNanos / QUERIES, (double) profiledNanos / QUERIES,
+                    (double) (profiledNanos - plainNanos) / QUERIES);
+        }
+        System.out.println(profiler.snapshot());
+        System.out.println("checksum " + checksum);
     }
 }
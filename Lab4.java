@@ -1,4 +1,58 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
 
 // Лабораторна робота №4
 // Тема: Патерн проектування "Адаптер"
@@ -44,6 +98,11 @@ class SlackApi {
         this.chatId = chatId;
     }
 
+    /** Ідентифікатор чату, в який публікує цей клієнт. */
+    public String getChatId() {
+        return chatId;
+    }
+
     /**
      * Несумісний метод: приймає лише один текстовий параметр.
      */
@@ -74,6 +133,18 @@ class SmsSender {
         System.out.println("-> [SMS API] Sending SMS from '" + this.sender + "' to '" + this.phone + "'.");
         System.out.println("-> [SMS API] Body: " + body);
     }
+
+    /**
+     * Відправляє один сегмент багаточастинного SMS: userData містить UDH і закодований текст.
+     * udl — поле UDL сегмента (для GSM-7 у септетах): за довжиною в байтах оператор не відрізнить
+     * останній септет '@' (0x00) від доповнення.
+     */
+    public void sendSegment(int part, int total, String encoding, byte[] userData, int length, int udl) {
+        // Імітація відправки сегмента
+        System.out.println("-> [SMS API] Sending part " + part + "/" + total + " (" + encoding + ", " + length
+                + " bytes, UDL " + udl + ") from '" + this.sender + "' to '" + this.phone + "': "
+                + HexFormat.of().formatHex(userData, 0, Math.min(length, 12)) + "...");
+    }
 }
 
 // КЛАСИ АДАПТЕРІВ (Adapter) - РЕАЛІЗУЮТЬ INTERFACE Notification
@@ -83,10 +154,20 @@ class SmsSender {
  */
 class SlackNotificationAdapter implements Notification {
     private final SlackApi slackApi;
+    private final SlackBatcher batcher;
 
     // Адаптер містить посилання на об'єкт Adaptee
     public SlackNotificationAdapter(SlackApi slackApi) {
+        this(slackApi, null);
+    }
+
+    /**
+     * Пакетний режим: повідомлення накопичуються в batcher (окремо для кожного клієнта SlackApi)
+     * і публікуються разом, коли набирається пакет або минає затримка.
+     */
+    public SlackNotificationAdapter(SlackApi slackApi, SlackBatcher batcher) {
         this.slackApi = slackApi;
+        this.batcher = batcher;
     }
 
     // Реалізація цільового інтерфейсу Notification
@@ -94,34 +175,2239 @@ class SlackNotificationAdapter implements Notification {
     public void send(String title, String message) {
         // Логіка адаптації: об'єднуємо title та message, щоб відповідати SlackApi::post(text)
         String textToPost = "!!! ALERT: " + title + " !!!\nMessage: " + message;
-        
+
+        if (batcher != null) {
+            batcher.add(slackApi, textToPost);
+            return;
+        }
         this.slackApi.post(textToPost); // Виклик несумісного методу Adaptee
     }
 }
 
+/**
+ * Накопичує повідомлення для Slack окремо для кожного клієнта SlackApi (чат і облікові дані)
+ * і публікує їх одним post(), коли в пакеті набирається maxMessages повідомлень або минає
+ * maxDelay від першого з них. Пакет, довший за maxLength, ділиться на частини детерміновано:
+ * повідомлення не переставляються, а розрізаються лише ті, що самі не вміщаються в ліміт.
+ * Після close() повідомлення публікуються одразу, без пакетування.
+ */
+class SlackBatcher implements AutoCloseable {
+
+    /** Рекомендована Slack межа довжини тексту одного повідомлення. */
+    public static final int SLACK_TEXT_LIMIT = 4_000;
+
+    private static final String SEPARATOR = "\n\n";
+
+    // Скільки пакетів різних чатів може публікуватися одночасно
+    private static final int PUBLISHERS = 4;
+
+    private final int maxMessages;
+    private final long maxDelayNanos;
+    private final int maxLength;
+    // Ключ — сам клієнт: два SlackApi з одним chatId, але різними обліковими даними не змішуються
+    private final Map<SlackApi, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    // Таймер лише передає пакет сюди, тож повільний чат не затримує публікацію інших
+    private final ThreadPoolExecutor publisher;
+    private volatile boolean closed;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder posts = new LongAdder();
+
+    public SlackBatcher(int maxMessages, Duration maxDelay) {
+        this(maxMessages, maxDelay, SLACK_TEXT_LIMIT);
+    }
+
+    public SlackBatcher(int maxMessages, Duration maxDelay, int maxLength) {
+        if (maxMessages <= 0 || maxLength <= SEPARATOR.length()) {
+            throw new IllegalArgumentException("Некоректні межі пакета");
+        }
+        this.maxMessages = maxMessages;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxLength = maxLength;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "slack-batch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = new ThreadPoolExecutor(PUBLISHERS, PUBLISHERS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "slack-batch-post");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        publisher.allowCoreThreadTimeOut(true);
+    }
+
+    void add(SlackApi api, String text) {
+        messages.increment();
+        if (closed) {
+            posts.increment();
+            api.post(text);
+            return;
+        }
+        Batch batch = batches.computeIfAbsent(api, Batch::new);
+        boolean full;
+        boolean scheduled = true;
+        synchronized (batch) {
+            batch.texts.add(text);
+            full = batch.texts.size() >= maxMessages;
+            if (!full && batch.texts.size() == 1) {
+                // Таймер заводиться першим повідомленням пакета і стосується лише цього пакета
+                List<String> texts = batch.texts;
+                try {
+                    batch.timer = timer.schedule(() -> publish(batch, texts), maxDelayNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // close() між перевіркою closed і плануванням
+                    scheduled = false;
+                }
+            }
+        }
+        if (full || !scheduled) {
+            flush(batch, null);
+        }
+    }
+
+    private void publish(Batch batch, List<String> texts) {
+        try {
+            publisher.execute(() -> flush(batch, texts));
+        } catch (RejectedExecutionException e) {
+            // Пакет опублікує close()
+        }
+    }
+
+    /** Публікує всі накопичені пакети. */
+    public void flush() {
+        batches.values().forEach(batch -> flush(batch, null));
+    }
+
+    // sending впорядковує публікації одного чату: пакет, зібраний раніше, публікується раніше.
+    // expected — пакет, для якого спрацював таймер; якщо його вже опубліковано достроково,
+    // таймер не чіпає наступний пакет, що ще не відбув свого maxDelay
+    private void flush(Batch batch, List<String> expected) {
+        synchronized (batch.sending) {
+            List<String> texts;
+            synchronized (batch) {
+                if (batch.texts.isEmpty() || (expected != null && batch.texts != expected)) {
+                    return;
+                }
+                texts = batch.texts;
+                batch.texts = new ArrayList<>();
+                if (batch.timer != null) {
+                    batch.timer.cancel(false);
+                    batch.timer = null;
+                }
+            }
+            for (String part : pack(texts, maxLength)) {
+                posts.increment();
+                batch.api.post(part);
+            }
+        }
+    }
+
+    /**
+     * Об'єднує повідомлення через порожній рядок у частини не довші за maxLength.
+     * Частини заповнюються жадібно в початковому порядку; повідомлення довше за ліміт
+     * ріжеться по останньому переносу рядка чи пробілу в межах ліміту, інакше — точно по ліміту.
+     */
+    static List<String> pack(List<String> texts, int maxLength) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String text : texts) {
+            int start = 0;
+            while (start < text.length()) {
+                int separator = current.length() == 0 ? 0 : SEPARATOR.length();
+                int room = maxLength - current.length() - separator;
+                int remaining = text.length() - start;
+                if (remaining <= room) {
+                    current.append(current.length() == 0 ? "" : SEPARATOR).append(text, start, text.length());
+                    break;
+                }
+                if (current.length() > 0) {
+                    // Повідомлення не вміщається в поточну частину — починаємо нову
+                    parts.add(current.toString());
+                    current.setLength(0);
+                    continue;
+                }
+                int end = cutPoint(text, start, start + maxLength);
+                parts.add(text.substring(start, end));
+                start = end;
+                // Пробіл чи перенос у точці розрізу не переносимо на початок наступної частини
+                while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                    start++;
+                }
+            }
+        }
+        if (current.length() > 0) {
+            parts.add(current.toString());
+        }
+        return parts;
+    }
+
+    private static int cutPoint(String text, int start, int limit) {
+        int newline = text.lastIndexOf('\n', limit - 1);
+        if (newline > start) {
+            return newline;
+        }
+        int space = text.lastIndexOf(' ', limit - 1);
+        if (space > start) {
+            return space;
+        }
+        // Не розриваємо сурогатну пару
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /** Скільки викликів SlackApi.post() зроблено. */
+    public long getPosts() {
+        return posts.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        publisher.shutdown();
+        flush();
+    }
+
+    private static final class Batch {
+        final Object sending = new Object();
+        final SlackApi api;
+        List<String> texts = new ArrayList<>();
+        // Таймер поточного пакета; скасовується, коли пакет публікується раніше
+        ScheduledFuture<?> timer;
+
+        Batch(SlackApi api) {
+            this.api = api;
+        }
+    }
+}
+
 /**
  * Адаптер для SMS. Перетворює виклик Notification::send() на SmsSender::sendSms().
  */
 class SmsNotificationAdapter implements Notification {
     private final SmsSender smsSender;
+    private final int maxSegments;
+
+    // Кодувальник і буфер сегмента перевикористовуються в межах потоку
+    private final ThreadLocal<SmsEncoder> encoders;
+    private final ThreadLocal<byte[]> segmentBuffers = ThreadLocal.withInitial(() -> new byte[140]);
+    private final AtomicInteger references = new AtomicInteger();
 
     // Адаптер містить посилання на об'єкт Adaptee
     public SmsNotificationAdapter(SmsSender smsSender) {
+        this(smsSender, 1);
+    }
+
+    /** @param maxSegments скільки оплачуваних сегментів дозволено на одне сповіщення */
+    public SmsNotificationAdapter(SmsSender smsSender, int maxSegments) {
         this.smsSender = smsSender;
+        this.maxSegments = maxSegments;
+        this.encoders = ThreadLocal.withInitial(() -> new SmsEncoder(maxSegments));
     }
 
     // Реалізація цільового інтерфейсу Notification
     @Override
     public void send(String title, String message) {
-        // Логіка адаптації: SMS не підтримує довгий формат. Обмежуємо повідомлення.
-        
-        // Визначаємо довжину, обмежуючи до 80 символів (для прикладу)
-        int maxLen = 80;
-        String truncatedMessage = message.substring(0, Math.min(message.length(), maxLen));
-        
-        String smsBody = "ALERT: " + truncatedMessage + (message.length() > maxLen ? "..." : ""); 
-        
-        this.smsSender.sendSms(smsBody); // Виклик несумісного методу Adaptee
+        // Логіка адаптації: SMS не підтримує довгий формат. Обмежуємо повідомлення
+        // точно за бюджетом сегментів з урахуванням кодування (GSM-7 чи UCS-2).
+        String smsBody = "ALERT: " + message;
+        SmsEncoder encoder = encoders.get().analyze(smsBody);
+
+        if (encoder.getSegments() == 1) {
+            String text = encoder.isTruncated() ? smsBody.substring(0, encoder.getLength()) + "..." : smsBody;
+            this.smsSender.sendSms(text); // Виклик несумісного методу Adaptee
+            return;
+        }
+        byte[] buffer = segmentBuffers.get();
+        int reference = references.incrementAndGet() & 0xFF;
+        for (int i = 0; i < encoder.getSegments(); i++) {
+            int length = encoder.encodeSegment(smsBody, i, reference, buffer);
+            this.smsSender.sendSegment(i + 1, encoder.getSegments(), encoder.getEncoding().name(), buffer, length,
+                    encoder.getUserDataLength());
+        }
+    }
+}
+
+/**
+ * Кодувальник SMS. За один прохід без алокацій визначає кодування (GSM-7, якщо всі символи
+ * є в алфавіті GSM 03.38, інакше UCS-2), кількість сегментів і точку обрізання, за якої
+ * текст разом із "..." вкладається в maxSegments. Довгі повідомлення діляться на частини
+ * з заголовком UDH для склеювання на телефоні. Екземпляр не потокобезпечний і
+ * перевикористовується між повідомленнями.
+ */
+class SmsEncoder {
+
+    enum Encoding { GSM_7, UCS_2 }
+
+    // Ємність у септетах (GSM-7) чи UTF-16 одиницях (UCS-2): 140 байт без UDH і з 6-байтовим UDH
+    private static final int GSM_SINGLE = 160;
+    private static final int GSM_PART = 153;
+    private static final int UCS_SINGLE = 70;
+    private static final int UCS_PART = 67;
+    private static final int UDH_LENGTH = 6;
+    private static final String ELLIPSIS = "...";
+
+    private static final String GSM_BASIC =
+            "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞ\u001bÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM_EXTENSION = "\f^{}\\[~]|€";
+    private static final int[] GSM_EXTENSION_CODES = {0x0A, 0x14, 0x28, 0x29, 0x2F, 0x3C, 0x3D, 0x3E, 0x40, 0x65};
+    private static final int ESCAPE = 0x1B;
+
+    // Код символу до U+03FF: 0..127 — основна таблиця, 0x100 | код — розширена (ESC + код), -1 — немає
+    private static final short[] CODES = new short[0x400];
+
+    static {
+        Arrays.fill(CODES, (short) -1);
+        for (int i = 0; i < GSM_BASIC.length(); i++) {
+            if (i != ESCAPE) {
+                CODES[GSM_BASIC.charAt(i)] = (short) i;
+            }
+        }
+        for (int i = 0; i < GSM_EXTENSION.length(); i++) {
+            char c = GSM_EXTENSION.charAt(i);
+            if (c < CODES.length) {
+                CODES[c] = (short) (0x100 | GSM_EXTENSION_CODES[i]);
+            }
+        }
+    }
+
+    private final int maxSegments;
+    private final int[] gsmStarts;
+    private final int[] ucsStarts;
+
+    private Encoding encoding;
+    private int segments;
+    private int length;
+    private boolean truncated;
+    private int[] starts;
+    private int userDataLength;
+
+    /** @param maxSegments скільки сегментів (оплачуваних SMS) дозволено на одне повідомлення */
+    SmsEncoder(int maxSegments) {
+        if (maxSegments < 1 || maxSegments > 255) {
+            throw new IllegalArgumentException("maxSegments має бути в межах 1..255");
+        }
+        this.maxSegments = maxSegments;
+        this.gsmStarts = new int[maxSegments];
+        this.ucsStarts = new int[maxSegments];
+    }
+
+    /**
+     * Аналізує текст: результат доступний через getEncoding(), getSegments(), getLength(), isTruncated().
+     * Обидва кодування рахуються паралельно, тож поява першого не-GSM символу не потребує другого проходу.
+     */
+    SmsEncoder analyze(CharSequence text) {
+        int n = text.length();
+        int gsmCapacity = maxSegments == 1 ? GSM_SINGLE : GSM_PART;
+        int ucsCapacity = maxSegments == 1 ? UCS_SINGLE : UCS_PART;
+        boolean gsm = true;
+        // Стан жадібного пакування по сегментах для кожного кодування:
+        // номер сегмента, зайнято в ньому, усього, точка обрізання та кількість сегментів з "..."
+        int gsmSegment = 1;
+        int gsmUsed = 0;
+        int gsmTotal = 0;
+        int gsmCut = 0;
+        int gsmCutSegments = 1;
+        boolean gsmCutSpills = false;
+        int ucsSegment = 1;
+        int ucsUsed = 0;
+        int ucsTotal = 0;
+        int ucsCut = 0;
+        int ucsCutSegments = 1;
+        boolean ucsCutSpills = false;
+        gsmStarts[0] = 0;
+        ucsStarts[0] = 0;
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            int end = i + 1;
+            int ucsWeight = 1;
+            // Сурогатна пара — неподільна одиниця, що займає дві UTF-16 позиції
+            if (Character.isHighSurrogate(c) && end < n && Character.isLowSurrogate(text.charAt(end))) {
+                end++;
+                ucsWeight = 2;
+            }
+            if (gsm) {
+                int code = ucsWeight == 1 ? gsmCode(c) : -1;
+                if (code < 0) {
+                    gsm = false;
+                } else {
+                    int weight = code > 0xFF ? 2 : 1;
+                    gsmTotal += weight;
+                    if (gsmUsed + weight > gsmCapacity) {
+                        // Розширений символ (ESC + код) не розривається між сегментами
+                        if (gsmSegment < maxSegments) {
+                            gsmStarts[gsmSegment] = i;
+                        }
+                        gsmSegment++;
+                        gsmUsed = 0;
+                    }
+                    gsmUsed += weight;
+                    if (gsmSegment < maxSegments || (gsmSegment == maxSegments && gsmUsed + ELLIPSIS.length() <= gsmCapacity)) {
+                        gsmCut = end;
+                        gsmCutSpills = gsmUsed + ELLIPSIS.length() > gsmCapacity;
+                        gsmCutSegments = gsmCutSpills ? gsmSegment + 1 : gsmSegment;
+                    }
+                }
+            }
+            ucsTotal += ucsWeight;
+            if (ucsUsed + ucsWeight > ucsCapacity) {
+                if (ucsSegment < maxSegments) {
+                    ucsStarts[ucsSegment] = i;
+                }
+                ucsSegment++;
+                ucsUsed = 0;
+            }
+            ucsUsed += ucsWeight;
+            if (ucsSegment < maxSegments || (ucsSegment == maxSegments && ucsUsed + ELLIPSIS.length() <= ucsCapacity)) {
+                ucsCut = end;
+                ucsCutSpills = ucsUsed + ELLIPSIS.length() > ucsCapacity;
+                ucsCutSegments = ucsCutSpills ? ucsSegment + 1 : ucsSegment;
+            }
+            i = end;
+        }
+        encoding = gsm ? Encoding.GSM_7 : Encoding.UCS_2;
+        starts = gsm ? gsmStarts : ucsStarts;
+        int total = gsm ? gsmTotal : ucsTotal;
+        int segment = gsm ? gsmSegment : ucsSegment;
+        if (total <= (gsm ? GSM_SINGLE : UCS_SINGLE)) {
+            segments = 1;
+            length = n;
+            truncated = false;
+        } else if (segment <= maxSegments) {
+            segments = segment;
+            length = n;
+            truncated = false;
+        } else {
+            segments = gsm ? gsmCutSegments : ucsCutSegments;
+            length = gsm ? gsmCut : ucsCut;
+            truncated = true;
+            // "..." не вмістилося в останній сегмент тексту і займає окремий
+            if (gsm ? gsmCutSpills : ucsCutSpills) {
+                starts[segments - 1] = length;
+            }
+        }
+        return this;
+    }
+
+    static int gsmCode(char c) {
+        if (c < CODES.length) {
+            return CODES[c];
+        }
+        return c == '€' ? 0x100 | 0x65 : -1;
+    }
+
+    Encoding getEncoding() {
+        return encoding;
+    }
+
+    int getSegments() {
+        return segments;
+    }
+
+    /** Скільки символів тексту (UTF-16 одиниць) входить у повідомлення; після них, якщо обрізано, іде "...". */
+    int getLength() {
+        return length;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Записує у out (щонайменше 140 байт) дані сегмента index для останнього проаналізованого
+     * тексту: UDH склеювання (якщо сегментів кілька) і закодований текст. Повертає кількість байтів.
+     */
+    int encodeSegment(CharSequence text, int index, int reference, byte[] out) {
+        int from = starts[index];
+        int to = index + 1 < segments ? starts[index + 1] : length;
+        boolean last = index == segments - 1;
+        int position = 0;
+        if (segments > 1) {
+            out[0] = 5; // довжина UDH без цього байта
+            out[1] = 0; // IEI: склеювання з 8-бітним номером
+            out[2] = 3;
+            out[3] = (byte) reference;
+            out[4] = (byte) segments;
+            out[5] = (byte) (index + 1);
+            position = UDH_LENGTH;
+        }
+        if (encoding == Encoding.UCS_2) {
+            for (int i = from; i < to; i++) {
+                position = putChar(out, position, text.charAt(i));
+            }
+            if (last && truncated) {
+                for (int i = 0; i < ELLIPSIS.length(); i++) {
+                    position = putChar(out, position, ELLIPSIS.charAt(i));
+                }
+            }
+            userDataLength = position;
+            return position;
+        }
+        Arrays.fill(out, position, 140, (byte) 0);
+        // Септети йдуть від межі септета: після 6-байтового UDH потрібен 1 біт вирівнювання
+        int bit = (position * 8 + 6) / 7 * 7;
+        for (int i = from; i < to; i++) {
+            int code = gsmCode(text.charAt(i));
+            if (code > 0xFF) {
+                bit = putSeptet(out, bit, ESCAPE);
+            }
+            bit = putSeptet(out, bit, code & 0x7F);
+        }
+        if (last && truncated) {
+            for (int i = 0; i < ELLIPSIS.length(); i++) {
+                bit = putSeptet(out, bit, gsmCode(ELLIPSIS.charAt(i)));
+            }
+        }
+        userDataLength = bit / 7;
+        return (bit + 7) / 8;
+    }
+
+    /**
+     * Поле UDL останнього закодованого сегмента: для GSM-7 у септетах (разом із UDH),
+     * для UCS-2 у байтах. Кількість байтів не визначає його для GSM-7 однозначно.
+     */
+    int getUserDataLength() {
+        return userDataLength;
+    }
+
+    private static int putChar(byte[] out, int position, char c) {
+        out[position] = (byte) (c >>> 8);
+        out[position + 1] = (byte) c;
+        return position + 2;
+    }
+
+    private static int putSeptet(byte[] out, int bit, int septet) {
+        int index = bit >>> 3;
+        int shift = bit & 7;
+        out[index] |= (byte) (septet << shift);
+        if (shift > 1) {
+            out[index + 1] |= (byte) (septet >>> (8 - shift));
+        }
+        return bit + 7;
+    }
+}
+
+// АСИНХРОННА ДОСТАВКА
+
+/**
+ * Що робити, коли черга каналу заповнена.
+ */
+enum OverflowPolicy {
+    /** Виробник чекає на вільне місце. */
+    BLOCK,
+    /** Найстаріше сповіщення в черзі відкидається на користь нового. */
+    DROP_OLDEST,
+    /** Надлишок дописується у файл і доставляється після звільнення черги. */
+    SPILL_TO_DISK
+}
+
+/**
+ * Асинхронний диспетчер сповіщень. Кожен канал (Email, Slack, SMS...) має власну обмежену
+ * чергу та власні робочі потоки, тож повільний шлюз гальмує лише свій канал, а виробник
+ * витрачає на постановку сповіщення в чергу мікросекунди.
+ */
+class NotificationDispatcher implements AutoCloseable {
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Path spillDirectory;
+    private volatile boolean closed;
+
+    /**
+     * @param spillDirectory каталог для файлів переповнення каналів з політикою SPILL_TO_DISK
+     */
+    public NotificationDispatcher(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Реєструє канал з чергою на capacity сповіщень, яку розбирають workers потоків.
+     */
+    public NotificationDispatcher register(String name, Notification target, int capacity, int workers,
+                                          OverflowPolicy policy) {
+        if (capacity <= 0 || workers <= 0) {
+            throw new IllegalArgumentException("capacity і workers мають бути додатними");
+        }
+        if (closed) {
+            throw new IllegalStateException("Диспетчер закрито");
+        }
+        channels.compute(name, (key, existing) -> {
+            if (existing != null) {
+                throw new IllegalStateException("Канал '" + name + "' вже зареєстровано");
+            }
+            try {
+                return new Channel(name, target, capacity, workers, policy,
+                        policy == OverflowPolicy.SPILL_TO_DISK ? new DiskSpill(spillDirectory.resolve(name + ".spill")) : null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Ставить сповіщення в чергу каналу. Повертає false, якщо сповіщення не прийняте
+     * (диспетчер закрито або потік перервано під час очікування за політикою BLOCK).
+     */
+    public boolean dispatch(String channel, String title, String message) {
+        if (closed) {
+            return false;
+        }
+        Channel target = channels.get(channel);
+        if (target == null) {
+            throw new IllegalArgumentException("Невідомий канал: " + channel);
+        }
+        return target.offer(new PendingNotification(title, message));
+    }
+
+    /** Ставить сповіщення в черги всіх каналів. */
+    public void dispatchAll(String title, String message) {
+        for (String channel : channels.keySet()) {
+            dispatch(channel, title, message);
+        }
+    }
+
+    /**
+     * Повертає асинхронний Notification для каналу: send() лише ставить сповіщення в чергу,
+     * тож його можна передати будь-якому клієнту інтерфейсу Notification.
+     */
+    public Notification channel(String name) {
+        if (!channels.containsKey(name)) {
+            throw new IllegalArgumentException("Невідомий канал: " + name);
+        }
+        return new ChannelNotification(name);
+    }
+
+    /** Статистика каналу на момент виклику. */
+    public ChannelStats stats(String channel) {
+        return channels.get(channel).stats();
+    }
+
+    /**
+     * Припиняє прийом нових сповіщень і чекає, доки робочі потоки доставлять уже прийняті.
+     * Якщо timeout минув, потоки перериваються: вміст файлів переповнення збережеться
+     * до наступного запуску, а сповіщення з черг у пам'яті буде втрачено.
+     */
+    public synchronized void close(Duration timeout) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Channel channel : channels.values()) {
+            channel.shutdown(deadline);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ofSeconds(30));
+    }
+
+    private final class ChannelNotification implements Notification {
+        private final String channel;
+
+        ChannelNotification(String channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void send(String title, String message) {
+            dispatch(channel, title, message);
+        }
+    }
+
+    static final class PendingNotification {
+        final String title;
+        final String message;
+
+        PendingNotification(String title, String message) {
+            this.title = title;
+            this.message = message;
+        }
+    }
+
+    private static final class Channel {
+        private final String name;
+        private final Notification target;
+        private final OverflowPolicy policy;
+        private final BlockingQueue<PendingNotification> queue;
+        private final DiskSpill spill;
+        private final Thread[] workers;
+        private volatile boolean stopping;
+
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder spilled = new LongAdder();
+
+        // Після помилки читання файл переповнення не опитується до spillRetryAt (експоненційна пауза),
+        // а черга в пам'яті тим часом доставляється як звичайно
+        private volatile long spillRetryAt;
+        private volatile long spillBackoffNanos;
+
+        Channel(String name, Notification target, int capacity, int workerCount, OverflowPolicy policy, DiskSpill spill) {
+            this.name = name;
+            this.target = target;
+            this.policy = policy;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.spill = spill;
+            this.workers = new Thread[workerCount];
+            for (int i = 0; i < workerCount; i++) {
+                workers[i] = new Thread(this::work, "notify-" + name + "-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        boolean offer(PendingNotification notification) {
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        queue.put(notification);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!queue.offer(notification)) {
+                        if (queue.poll() != null) {
+                            dropped.increment();
+                        }
+                    }
+                    break;
+                default:
+                    // Поки у файлі є сповіщення, нові теж ідуть туди — так зберігається порядок
+                    if (spill.isEmpty() && queue.offer(notification)) {
+                        break;
+                    }
+                    try {
+                        spill.append(notification);
+                    } catch (IOException e) {
+                        dropped.increment();
+                        return false;
+                    }
+                    spilled.increment();
+                    break;
+            }
+            accepted.increment();
+            return true;
+        }
+
+        private void work() {
+            while (!(stopping && Thread.currentThread().isInterrupted())) {
+                PendingNotification next;
+                try {
+                    next = queue.poll();
+                    if (next == null && spill != null) {
+                        next = pollSpill();
+                    }
+                    if (next == null) {
+                        next = queue.poll(50, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (next == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    target.send(next.title, next.message);
+                    delivered.increment();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                }
+            }
+        }
+
+        // Пошкоджений або недоступний файл переповнення не має зупиняти доставку з черги
+        // і не має крутити робочий потік вхолосту
+        private PendingNotification pollSpill() {
+            long backoff = spillBackoffNanos;
+            if (backoff != 0 && System.nanoTime() - spillRetryAt < 0) {
+                return null;
+            }
+            try {
+                PendingNotification next = spill.poll();
+                spillBackoffNanos = 0;
+                return next;
+            } catch (IOException e) {
+                failed.increment();
+                backoff = Math.min(Math.max(backoff * 2, TimeUnit.MILLISECONDS.toNanos(10)),
+                        TimeUnit.SECONDS.toNanos(1));
+                spillBackoffNanos = backoff;
+                spillRetryAt = System.nanoTime() + backoff;
+                return null;
+            }
+        }
+
+        void shutdown(long deadline) {
+            stopping = true;
+            for (Thread worker : workers) {
+                try {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining > 0) {
+                        worker.join(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            // Переривання потрібне лише тим, хто завис у повільному send()
+            for (Thread worker : workers) {
+                if (worker.isAlive()) {
+                    worker.interrupt();
+                }
+            }
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        ChannelStats stats() {
+            return new ChannelStats(name, accepted.sum(), delivered.sum(), failed.sum(),
+                    dropped.sum() + (spill == null ? 0 : spill.discarded()), spilled.sum(),
+                    queue.size() + (spill == null ? 0 : spill.size()));
+        }
+    }
+}
+
+/**
+ * Статистика каналу диспетчера.
+ */
+class ChannelStats {
+    private final String channel;
+    private final long accepted;
+    private final long delivered;
+    private final long failed;
+    private final long dropped;
+    private final long spilled;
+    private final long backlog;
+
+    ChannelStats(String channel, long accepted, long delivered, long failed, long dropped, long spilled, long backlog) {
+        this.channel = channel;
+        this.accepted = accepted;
+        this.delivered = delivered;
+        this.failed = failed;
+        this.dropped = dropped;
+        this.spilled = spilled;
+        this.backlog = backlog;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getSpilled() {
+        return spilled;
+    }
+
+    /** Скільки сповіщень чекає в черзі та у файлі переповнення. */
+    public long getBacklog() {
+        return backlog;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelStats{" + channel + ": accepted=" + accepted + ", delivered=" + delivered + ", failed=" + failed
+                + ", dropped=" + dropped + ", spilled=" + spilled + ", backlog=" + backlog + "}";
+    }
+}
+
+/**
+ * FIFO-файл переповнення: заголовок із позицією читання, далі записи
+ * [довжина заголовка][довжина тексту][UTF-8 байти], що дописуються через буфер у пам'яті
+ * й скидаються у файл пакетами. Коли все прочитано, файл обрізається,
+ * тож він не росте безмежно. Вміст попереднього запуску доставляється першим; позиція читання
+ * зберігається при закритті, тож після аварії частина записів може бути доставлена повторно.
+ * Файл спільний для виробників і робочих потоків, тож переривання одного з них не закриває його
+ * для решти: на час операції прапорець переривання знімається, а закритий канал відкривається знову.
+ */
+class DiskSpill {
+    private static final int FILE_HEADER = 8;
+
+    private final Path path;
+    private FileChannel file;
+    private boolean closed;
+    private long readPosition = FILE_HEADER;
+    private long writePosition = FILE_HEADER;
+    private long size;
+    private final ByteBuffer header = ByteBuffer.allocate(8);
+    // Записи накопичуються в буфері й потрапляють у файл одним write(), а не по одному
+    private final ByteBuffer buffered = ByteBuffer.allocate(64 * 1024);
+    private long flushedPosition = FILE_HEADER;
+    // Записи, відкинуті через пошкодження файлу
+    private long discarded;
+
+    DiskSpill(Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.path = path;
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = file.size();
+        if (length >= FILE_HEADER) {
+            header.clear();
+            readFully(header, 0);
+            readPosition = header.flip().getLong();
+            if (readPosition < FILE_HEADER || readPosition > length) {
+                // Заголовок пошкоджено: межі записів невідомі, тож файл починається заново
+                readPosition = FILE_HEADER;
+                length = FILE_HEADER;
+            }
+            // Підраховуємо записи, що лишилися з попереднього запуску; обірваний
+            // або пошкоджений хвіст відкидаємо
+            long position = readPosition;
+            while (position + 8 <= length) {
+                header.clear();
+                readFully(header, position);
+                header.flip();
+                if (!validRecord(header.getInt(), header.getInt(), position, length)) {
+                    break;
+                }
+                position += 8 + header.getInt(0) + (long) header.getInt(4);
+                size++;
+            }
+            writePosition = position;
+            flushedPosition = position;
+        }
+        if (size == 0) {
+            reset();
+        } else {
+            truncate(writePosition);
+        }
+    }
+
+    // Довжини записів не захищені контрольною сумою, тож перевіряються до виділення буфера
+    private static boolean validRecord(int titleLength, int messageLength, long position, long end) {
+        return titleLength >= 0 && messageLength >= 0 && position + 8 + titleLength + (long) messageLength <= end;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized long discarded() {
+        return discarded;
+    }
+
+    synchronized void append(NotificationDispatcher.PendingNotification notification) throws IOException {
+        byte[] title = notification.title.getBytes(StandardCharsets.UTF_8);
+        byte[] message = notification.message.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + title.length + message.length;
+        if (length > buffered.remaining()) {
+            flush();
+        }
+        if (length > buffered.capacity()) {
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(title.length).putInt(message.length).put(title).put(message).flip();
+            writeFully(record, flushedPosition);
+            flushedPosition += length;
+        } else {
+            buffered.putInt(title.length).putInt(message.length).put(title).put(message);
+        }
+        writePosition += length;
+        size++;
+    }
+
+    synchronized NotificationDispatcher.PendingNotification poll() throws IOException {
+        if (size == 0) {
+            return null;
+        }
+        if (readPosition >= flushedPosition) {
+            flush();
+        }
+        header.clear();
+        readFully(header, readPosition);
+        header.flip();
+        int titleLength = header.getInt();
+        int messageLength = header.getInt();
+        if (!validRecord(titleLength, messageLength, readPosition, flushedPosition)) {
+            // Решту файлу вже не розібрати: записи відкидаються, щоб доставка не стала
+            long lost = size;
+            discarded += lost;
+            size = 0;
+            reset();
+            throw new StreamCorruptedException("Пошкоджений запис у " + path + ", відкинуто " + lost);
+        }
+        ByteBuffer body = ByteBuffer.allocate(titleLength + messageLength);
+        readFully(body, readPosition + 8);
+        readPosition += 8 + body.capacity();
+        size--;
+        if (size == 0) {
+            reset();
+        }
+        byte[] bytes = body.array();
+        return new NotificationDispatcher.PendingNotification(new String(bytes, 0, titleLength, StandardCharsets.UTF_8),
+                new String(bytes, titleLength, messageLength, StandardCharsets.UTF_8));
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            writeReadPosition();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closed = true;
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // Дані вже записані або помилка прокинута вище
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffered.flip();
+        try {
+            writeFully(buffered, flushedPosition);
+        } finally {
+            // Після часткового запису незаписаний хвіст лишається в буфері для наступної спроби
+            flushedPosition += buffered.position();
+            buffered.compact();
+        }
+    }
+
+    private void reset() throws IOException {
+        truncate(FILE_HEADER);
+        readPosition = FILE_HEADER;
+        writePosition = FILE_HEADER;
+        flushedPosition = FILE_HEADER;
+        writeReadPosition();
+    }
+
+    private void writeReadPosition() throws IOException {
+        header.clear();
+        header.putLong(readPosition).flip();
+        writeFully(header, 0);
+    }
+
+    // Позиція у файлі обчислюється з позиції буфера, тож повтор після переривання продовжує з місця зупинки
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long base = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel(file -> file.write(buffer, base + buffer.position()));
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long base = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            int read = channel(file -> file.read(buffer, base + buffer.position()));
+            if (read < 0) {
+                throw new EOFException("Файл переповнення обірвано");
+            }
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        channel(file -> {
+            file.truncate(length);
+            return 0;
+        });
+    }
+
+    private interface FileOperation {
+        int apply(FileChannel file) throws IOException;
+    }
+
+    // Виконує одну операцію над каналом, не даючи перериванню потоку закрити його назавжди
+    private int channel(FileOperation operation) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                if (!file.isOpen()) {
+                    file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                try {
+                    return operation.apply(file);
+                } catch (ClosedByInterruptException e) {
+                    // Переривання прийшло під час операції: канал закрито, прапорець знову знімаємо й повторюємо
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+// ПРИДУШЕННЯ ШТОРМІВ СПОВІЩЕНЬ
+
+/**
+ * Декоратор, що згортає повтори сповіщення. Перше сповіщення з певним відбитком (fingerprint)
+ * передається одразу, повтори протягом вікна лише рахуються, а наприкінці вікна надсилається
+ * одне підсумкове сповіщення з кількістю. Поки шторм триває, на кожен відбиток припадає
+ * не більше одного виклику на вікно. Кількість відбитків обмежена: найдавніше використаний
+ * витісняється (його підсумок надсилається одразу).
+ */
+class CoalescingNotification implements Notification, AutoCloseable {
+
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+
+    /** Відбиток за заголовком. */
+    public static final BiFunction<String, String, String> BY_TITLE = (title, message) -> title;
+
+    /**
+     * Відбиток за заголовком і текстом, у якому числа замінено на #:
+     * "timeout after 503 ms" і "timeout after 498 ms" вважаються одним сповіщенням.
+     */
+    public static final BiFunction<String, String, String> BY_TEMPLATE =
+            (title, message) -> title + '\n' + DIGITS.matcher(message).replaceAll("#");
+
+    private final Notification delegate;
+    private final long windowNanos;
+    private final int maxKeys;
+    private final BiFunction<String, String, String> fingerprint;
+
+    // Порядок доступу: перший елемент — найдавніше використаний відбиток
+    private final LinkedHashMap<String, Window> windows = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder summaries = new LongAdder();
+    private final LongAdder failedSummaries = new LongAdder();
+
+    public CoalescingNotification(Notification delegate, Duration window, int maxKeys) {
+        this(delegate, window, maxKeys, BY_TITLE);
+    }
+
+    public CoalescingNotification(Notification delegate, Duration window, int maxKeys,
+                                  BiFunction<String, String, String> fingerprint) {
+        if (maxKeys <= 0 || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Вікно та maxKeys мають бути додатними");
+        }
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxKeys = maxKeys;
+        this.fingerprint = fingerprint;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coalescing-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Підсумки надсилаються не пізніше ніж через чверть вікна після його завершення
+        long period = Math.max(1, windowNanos / 4);
+        flusher.scheduleAtFixedRate(this::flushExpired, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void send(String title, String message) {
+        received.increment();
+        String key = fingerprint.apply(title, message);
+        long now = System.nanoTime();
+        Window evicted = null;
+        synchronized (windows) {
+            Window window = windows.get(key);
+            if (window != null) {
+                window.suppressed++;
+                window.lastTitle = title;
+                window.lastMessage = message;
+                return;
+            }
+            windows.put(key, new Window(title, message, now + windowNanos));
+            if (windows.size() > maxKeys) {
+                Iterator<Window> eldest = windows.values().iterator();
+                evicted = eldest.next();
+                eldest.remove();
+            }
+        }
+        if (evicted != null && evicted.suppressed > 0) {
+            sendSummary(evicted);
+        }
+        forwarded.increment();
+        delegate.send(title, message);
+    }
+
+    /** Надсилає підсумки всіх вікон, у яких є пропущені повтори, і закриває ці вікна. */
+    public void flush() {
+        List<Window> due = new ArrayList<>();
+        synchronized (windows) {
+            for (Window window : windows.values()) {
+                if (window.suppressed > 0) {
+                    due.add(window.copyAndReset());
+                }
+            }
+            windows.clear();
+        }
+        due.forEach(this::sendSummary);
+    }
+
+    // Завершені вікна з повторами надсилають підсумок і продовжуються ще на одне вікно;
+    // вікна без повторів видаляються, тож наступне сповіщення знову піде одразу
+    private void flushExpired() {
+        long now = System.nanoTime();
+        List<Window> due = new ArrayList<>();
+        synchronized (windows) {
+            Iterator<Window> iterator = windows.values().iterator();
+            while (iterator.hasNext()) {
+                Window window = iterator.next();
+                if (now - window.deadline < 0) {
+                    continue;
+                }
+                if (window.suppressed == 0) {
+                    iterator.remove();
+                } else {
+                    due.add(window.copyAndReset());
+                    window.deadline = now + windowNanos;
+                }
+            }
+        }
+        for (Window summary : due) {
+            try {
+                sendSummary(summary);
+            } catch (RuntimeException e) {
+                // Помилка одного каналу не має зупиняти періодичне скидання
+                failedSummaries.increment();
+            }
+        }
+    }
+
+    private void sendSummary(Window window) {
+        delegate.send(window.lastTitle + " (repeated " + window.suppressed + " more times)", window.lastMessage);
+        summaries.increment();
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /** Скільки викликів дійшло до обгорнутого каналу (перші сповіщення й підсумки). */
+    public long getDelivered() {
+        return forwarded.sum() + summaries.sum();
+    }
+
+    /** Скільки періодичних підсумків не вдалося надіслати: обгорнутий канал кинув виняток. */
+    public long getFailedSummaries() {
+        return failedSummaries.sum();
+    }
+
+    public int getTrackedKeys() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    private static final class Window {
+        String lastTitle;
+        String lastMessage;
+        long deadline;
+        long suppressed;
+
+        Window(String title, String message, long deadline) {
+            this.lastTitle = title;
+            this.lastMessage = message;
+            this.deadline = deadline;
+        }
+
+        Window copyAndReset() {
+            Window copy = new Window(lastTitle, lastMessage, deadline);
+            copy.suppressed = suppressed;
+            suppressed = 0;
+            return copy;
+        }
+    }
+}
+
+// СТІЙКІСТЬ ДО ДЕГРАДАЦІЇ КАНАЛІВ
+
+/**
+ * Декоратор стійкості для Notification. Веде ковзне вікно затримок і помилок основного каналу
+ * та розмикає ланцюг (circuit breaker), коли p99 або частка помилок перевищують поріг:
+ * поки ланцюг розімкнений, сповіщення одразу йдуть у резервний канал. Для критичних сповіщень
+ * основний канал викликається асинхронно, і якщо він не відповів за свій p95, паралельно
+ * запускається хедж-запит у резервний канал; викликач чекає на першу успішну доставку.
+ * Виклик, що триває довше за поріг p99, зараховується як помилка, не чекаючи на його завершення,
+ * тож завислий канал теж розмикає ланцюг.
+ */
+class ResilientNotification implements Notification {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // Обмежений пул: завислий основний канал не може захопити необмежену кількість потоків.
+    // Коли пул зайнятий, критичне сповіщення відправляється без хеджу, як звичайне.
+    private static final int HEDGE_THREADS = 64;
+    private static final ExecutorService HEDGE_EXECUTOR =
+            new ThreadPoolExecutor(0, HEDGE_THREADS, 30, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "notification-hedge");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    private final String name;
+    private final Notification primary;
+    private final Notification fallback;
+
+    private BiPredicate<String, String> critical = (title, message) -> title.contains("CRITICAL");
+    private long p99ThresholdNanos = TimeUnit.SECONDS.toNanos(2);
+    private double errorRateThreshold = 0.5;
+    private int minSamples = 20;
+    private long openNanos = TimeUnit.SECONDS.toNanos(30);
+    private long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    // Верхня межа затримки хеджу: інакше деградуючий канал роздуває власний p95 і хеджування зникає
+    private long maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(250);
+
+    // Ковзне вікно останніх викликів основного каналу (кільцевий буфер)
+    private final long[] latencies;
+    private final boolean[] failures;
+    private final long[] sorted;
+    private int next;
+    private int samples;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    // Незавершені виклики основного каналу в порядку початку. Зміна стану очищує набір,
+    // тож запізнілі результати викликів, пропущених у попередньому стані, ігноруються.
+    private final Set<Call> inFlight = new LinkedHashSet<>();
+
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    /**
+     * @param fallback  резервний канал; null — без хеджування, а за розімкненого ланцюга send() кидає виняток
+     * @param window    скільки останніх викликів враховувати в статистиці
+     */
+    public ResilientNotification(String name, Notification primary, Notification fallback, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window має бути додатним");
+        }
+        this.name = name;
+        this.primary = primary;
+        this.fallback = fallback;
+        this.latencies = new long[window];
+        this.failures = new boolean[window];
+        this.sorted = new long[window];
+    }
+
+    /** Розмикати ланцюг, коли p99 затримки або частка помилок перевищують пороги. */
+    public ResilientNotification tripOn(Duration p99, double errorRate, int minSamples) {
+        this.p99ThresholdNanos = p99.toNanos();
+        this.errorRateThreshold = errorRate;
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    /** Скільки тримати ланцюг розімкненим до пробного виклику. */
+    public ResilientNotification openFor(Duration duration) {
+        this.openNanos = duration.toNanos();
+        return this;
+    }
+
+    /** Межі затримки перед хедж-запитом; у цих межах вона дорівнює p95 основного каналу. */
+    public ResilientNotification hedgeDelay(Duration min, Duration max) {
+        this.minHedgeDelayNanos = min.toNanos();
+        this.maxHedgeDelayNanos = max.toNanos();
+        return this;
+    }
+
+    /** Які сповіщення вважаються критичними й хеджуються. */
+    public ResilientNotification criticalWhen(BiPredicate<String, String> critical) {
+        this.critical = critical;
+        return this;
+    }
+
+    @Override
+    public void send(String title, String message) {
+        Call call = admit();
+        if (call == null) {
+            shortCircuited.increment();
+            if (fallback == null) {
+                throw new IllegalStateException("Канал " + name + " недоступний: ланцюг розімкнено");
+            }
+            fallback.send(title, message);
+            return;
+        }
+        if (fallback != null && critical.test(title, message) && sendHedged(call, title, message)) {
+            return;
+        }
+        try {
+            primary.send(title, message);
+        } catch (RuntimeException e) {
+            complete(call, true);
+            if (fallback == null) {
+                throw e;
+            }
+            fallback.send(title, message);
+            return;
+        }
+        complete(call, false);
+    }
+
+    // false — пул хеджування зайнятий, і викликач має відправити сповіщення сам
+    private boolean sendHedged(Call call, String title, String message) {
+        CompletableFuture<Void> primaryCall;
+        try {
+            primaryCall = CompletableFuture.runAsync(() -> primary.send(title, message), HEDGE_EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        // Затримку основного виклику записуємо, навіть якщо переміг хедж
+        primaryCall.whenComplete((ignored, error) -> complete(call, error != null));
+        long hedgeDelay = Math.min(maxHedgeDelayNanos, Math.max(minHedgeDelayNanos, percentile(0.95)));
+        try {
+            primaryCall.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            hedges.increment();
+        } catch (ExecutionException e) {
+            // Основний канал відмовив до хеджу — одразу резервний
+            fallback.send(title, message);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Перервано під час відправки через " + name, e);
+        }
+        CompletableFuture<Void> hedgeCall;
+        try {
+            hedgeCall = CompletableFuture.runAsync(() -> fallback.send(title, message), HEDGE_EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            // Пул зайнятий: резервний канал викликається в потоці викликача
+            hedgeCall = new CompletableFuture<>();
+            try {
+                fallback.send(title, message);
+                hedgeCall.complete(null);
+            } catch (RuntimeException error) {
+                hedgeCall.completeExceptionally(error);
+            }
+        }
+        // Перша успішна доставка завершує виклик; помилка — лише якщо відмовили обидва
+        CompletableFuture<Void> firstSuccess = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        BiConsumer<Void, Throwable> onComplete = (ignored, error) -> {
+            if (error == null) {
+                firstSuccess.complete(null);
+            } else if (failed.incrementAndGet() == 2) {
+                firstSuccess.completeExceptionally(error);
+            }
+        };
+        primaryCall.whenComplete(onComplete);
+        hedgeCall.whenComplete((ignored, error) -> {
+            if (error == null && !primaryCall.isDone()) {
+                hedgeWins.increment();
+            }
+            onComplete.accept(ignored, error);
+        });
+        try {
+            firstSuccess.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Обидва канали відмовили для " + name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Перервано під час відправки через " + name, e);
+        }
+        return true;
+    }
+
+    // Виклик основного каналу, пропущений admit(); null — ланцюг не пропускає виклик.
+    // В HALF_OPEN пропускається лише одна проба.
+    private synchronized Call admit() {
+        long now = System.nanoTime();
+        expireHungCalls(now);
+        if (state == State.OPEN) {
+            if (now - openedAt < openNanos) {
+                return null;
+            }
+            transition(State.HALF_OPEN);
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                return null;
+            }
+            probing = true;
+        }
+        Call call = new Call(now);
+        inFlight.add(call);
+        return call;
+    }
+
+    // Виклики, що тривають довше за поріг p99, зараховуються як помилки вже зараз
+    private void expireHungCalls(long now) {
+        while (!inFlight.isEmpty()) {
+            Call oldest = inFlight.iterator().next();
+            if (now - oldest.start <= p99ThresholdNanos) {
+                return;
+            }
+            inFlight.remove(oldest);
+            // Може розімкнути ланцюг і очистити inFlight
+            record(now - oldest.start, true);
+        }
+    }
+
+    // Результат виклику; ігнорується, якщо його вже зараховано як завислий або стан змінився
+    private synchronized void complete(Call call, boolean failed) {
+        if (inFlight.remove(call)) {
+            record(System.nanoTime() - call.start, failed);
+        }
+    }
+
+    private void transition(State target) {
+        state = target;
+        inFlight.clear();
+    }
+
+    private void record(long nanos, boolean failed) {
+        if (state == State.HALF_OPEN) {
+            if (failed || nanos > p99ThresholdNanos) {
+                open();
+                return;
+            }
+            // Проба вдалася: стара статистика деградації більше не актуальна
+            transition(State.CLOSED);
+            samples = 0;
+            next = 0;
+            failureCount = 0;
+        }
+        if (samples == latencies.length && failures[next]) {
+            failureCount--;
+        }
+        latencies[next] = nanos;
+        failures[next] = failed;
+        failureCount += failed ? 1 : 0;
+        next = (next + 1) % latencies.length;
+        samples = Math.min(samples + 1, latencies.length);
+        if (state == State.CLOSED && samples >= minSamples
+                && ((double) failureCount / samples > errorRateThreshold || percentile(0.99) > p99ThresholdNanos)) {
+            open();
+        }
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private static final class Call {
+        final long start;
+
+        Call(long start) {
+            this.start = start;
+        }
+    }
+
+    /** Перцентиль затримки основного каналу за ковзним вікном; 0, якщо вимірів ще немає. */
+    public synchronized long percentile(double quantile) {
+        if (samples == 0) {
+            return 0;
+        }
+        System.arraycopy(latencies, 0, sorted, 0, samples);
+        Arrays.sort(sorted, 0, samples);
+        return sorted[Math.min(samples - 1, (int) Math.ceil(quantile * samples) - 1)];
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized double getErrorRate() {
+        return samples == 0 ? 0 : (double) failureCount / samples;
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ResilientNotification{" + name + ": state=" + getState()
+                + ", p95=" + TimeUnit.NANOSECONDS.toMillis(percentile(0.95)) + "ms"
+                + ", p99=" + TimeUnit.NANOSECONDS.toMillis(percentile(0.99)) + "ms"
+                + ", errors=" + Math.round(getErrorRate() * 100) + "%"
+                + ", hedges=" + hedges.sum() + ", hedgeWins=" + hedgeWins.sum()
+                + ", shortCircuited=" + shortCircuited.sum() + "}";
+    }
+}
+
+/**
+ * Імітація деградованого каналу для перевірки стійкості: додає затримку й
+ * з заданою ймовірністю кидає виняток. Параметри можна змінювати на льоту.
+ */
+class SimulatedSlowNotification implements Notification {
+    private final Notification delegate;
+    private final Random random = new Random(7);
+    private volatile long delayMillis;
+    private volatile double failureRate;
+
+    SimulatedSlowNotification(Notification delegate) {
+        this.delegate = delegate;
+    }
+
+    void degrade(long delayMillis, double failureRate) {
+        this.delayMillis = delayMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void send(String title, String message) {
+        AdapterDemo.sleep(delayMillis);
+        boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < failureRate;
+        }
+        if (fail) {
+            throw new IllegalStateException("Simulated gateway failure");
+        }
+        delegate.send(title, message);
+    }
+}
+
+// ПЛАНУВАННЯ ЗА ПРІОРИТЕТОМ І ДЕДЛАЙНОМ
+
+/**
+ * Пріоритет сповіщення та дедлайн доставки за замовчуванням.
+ */
+enum NotificationPriority {
+    CRITICAL(Duration.ofSeconds(1)),
+    HIGH(Duration.ofSeconds(10)),
+    NORMAL(Duration.ofMinutes(1)),
+    INFO(Duration.ofMinutes(5));
+
+    private final Duration defaultDeadline;
+
+    NotificationPriority(Duration defaultDeadline) {
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    public Duration getDefaultDeadline() {
+        return defaultDeadline;
+    }
+}
+
+/**
+ * Планувальник доставки: кожне сповіщення має пріоритет і дедлайн, а робочі потоки завжди
+ * беруть сповіщення з найближчим дедлайном (EDF) серед усіх каналів, де є вільне місце.
+ * Кількість потоків — глобальний бюджет одночасних відправок; ліміт каналу не дає
+ * повільному шлюзу зайняти весь бюджет. Критичне сповіщення з дедлайном у секунду обганяє
+ * тисячі інформаційних з дедлайном у хвилини.
+ */
+class NotificationScheduler implements AutoCloseable {
+
+    private final Object lock = new Object();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final Thread[] workers;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<NotificationPriority, PriorityStats> stats = new EnumMap<>(NotificationPriority.class);
+    private boolean closed;
+
+    /** @param concurrency глобальний бюджет одночасних відправок */
+    public NotificationScheduler(int concurrency) {
+        for (NotificationPriority priority : NotificationPriority.values()) {
+            stats.put(priority, new PriorityStats());
+        }
+        workers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Thread(this::work, "notification-scheduler-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /** Реєструє канал, який може займати щонайбільше maxConcurrency потоків одночасно. */
+    public NotificationScheduler register(String channel, Notification target, int maxConcurrency) {
+        synchronized (lock) {
+            lanes.put(channel, new Lane(target, maxConcurrency));
+        }
+        return this;
+    }
+
+    /** Планує сповіщення з дедлайном за замовчуванням для пріоритету. */
+    public CompletableFuture<Void> schedule(String channel, NotificationPriority priority,
+                                                              String title, String message) {
+        return schedule(channel, priority, priority.getDefaultDeadline(), title, message);
+    }
+
+    /**
+     * Планує сповіщення; результат завершується після доставки (або з помилкою каналу).
+     * Пропущений дедлайн не скасовує доставку, а лише фіксується в метриках.
+     */
+    public CompletableFuture<Void> schedule(String channel, NotificationPriority priority,
+                                                              Duration deadline, String title, String message) {
+        Task task = new Task(priority, System.nanoTime() + deadline.toNanos(), sequence.incrementAndGet(), title, message);
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Планувальник закрито");
+            }
+            Lane lane = lanes.get(channel);
+            if (lane == null) {
+                throw new IllegalArgumentException("Невідомий канал: " + channel);
+            }
+            lane.queue.add(task);
+            stats.get(priority).scheduled.increment();
+            lock.notify();
+        }
+        return task.result;
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Task task;
+            synchronized (lock) {
+                while (true) {
+                    lane = earliest();
+                    if (lane != null) {
+                        break;
+                    }
+                    if (closed && isIdle()) {
+                        return;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = lane.queue.poll();
+                lane.inFlight++;
+            }
+            try {
+                lane.target.send(task.title, task.message);
+                complete(task, null);
+            } catch (RuntimeException e) {
+                complete(task, e);
+            } finally {
+                synchronized (lock) {
+                    lane.inFlight--;
+                    // Звільнене місце каналу може розблокувати потоки, що чекали саме на нього
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Канал, голова черги якого має найближчий дедлайн серед каналів з вільним місцем
+    private Lane earliest() {
+        Lane best = null;
+        for (Lane lane : lanes.values()) {
+            if (lane.inFlight < lane.maxConcurrency && !lane.queue.isEmpty()
+                    && (best == null || EDF.compare(lane.queue.peek(), best.queue.peek()) < 0)) {
+                best = lane;
+            }
+        }
+        return best;
+    }
+
+    private boolean isIdle() {
+        for (Lane lane : lanes.values()) {
+            if (!lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void complete(Task task, RuntimeException error) {
+        PriorityStats priorityStats = stats.get(task.priority);
+        long lateness = System.nanoTime() - task.deadline;
+        if (lateness > 0) {
+            priorityStats.deadlineMisses.increment();
+            priorityStats.maxLatenessNanos.accumulateAndGet(lateness, Math::max);
+        }
+        if (error == null) {
+            priorityStats.delivered.increment();
+            task.result.complete(null);
+        } else {
+            priorityStats.failed.increment();
+            task.result.completeExceptionally(error);
+        }
+    }
+
+    /** Частка сповіщень пріоритету, доставлених після дедлайну. */
+    public double getDeadlineMissRate(NotificationPriority priority) {
+        PriorityStats priorityStats = stats.get(priority);
+        long completed = priorityStats.delivered.sum() + priorityStats.failed.sum();
+        return completed == 0 ? 0 : (double) priorityStats.deadlineMisses.sum() / completed;
+    }
+
+    public long getDeadlineMisses(NotificationPriority priority) {
+        return stats.get(priority).deadlineMisses.sum();
+    }
+
+    /** Очікує доставки вже запланованих сповіщень і зупиняє потоки. */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("NotificationScheduler{");
+        for (Map.Entry<NotificationPriority, PriorityStats> entry : stats.entrySet()) {
+            PriorityStats priorityStats = entry.getValue();
+            if (priorityStats.scheduled.sum() == 0) {
+                continue;
+            }
+            out.append("\n  ").append(entry.getKey())
+                    .append(": scheduled=").append(priorityStats.scheduled.sum())
+                    .append(", delivered=").append(priorityStats.delivered.sum())
+                    .append(", failed=").append(priorityStats.failed.sum())
+                    .append(", deadlineMisses=").append(priorityStats.deadlineMisses.sum())
+                    .append(", maxLateness=")
+                    .append(TimeUnit.NANOSECONDS.toMillis(priorityStats.maxLatenessNanos.get()))
+                    .append("ms");
+        }
+        return out.append("\n}").toString();
+    }
+
+    // Раніший дедлайн першим; за рівних — вищий пріоритет, далі — порядок надходження
+    private static final Comparator<Task> EDF = (a, b) -> {
+        int order = Long.compare(a.deadline - b.deadline, 0);
+        if (order != 0) {
+            return order;
+        }
+        order = a.priority.compareTo(b.priority);
+        return order != 0 ? order : Long.compare(a.sequence, b.sequence);
+    };
+
+    private static final class Lane {
+        final Notification target;
+        final int maxConcurrency;
+        final PriorityQueue<Task> queue = new PriorityQueue<>(EDF);
+        int inFlight;
+
+        Lane(Notification target, int maxConcurrency) {
+            this.target = target;
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    private static final class Task {
+        final NotificationPriority priority;
+        final long deadline;
+        final long sequence;
+        final String title;
+        final String message;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Task(NotificationPriority priority, long deadline, long sequence, String title, String message) {
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.title = title;
+            this.message = message;
+        }
+    }
+
+    private static final class PriorityStats {
+        final LongAdder scheduled = new LongAdder();
+        final LongAdder delivered = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder deadlineMisses = new LongAdder();
+        final AtomicLong maxLatenessNanos = new AtomicLong();
+    }
+}
+
+// ПЕРСИСТЕНТНА ЧЕРГА НЕДОСТАВЛЕНИХ СПОВІЩЕНЬ
+
+/**
+ * Кільцевий файл недоставлених сповіщень, відображений у пам'ять (MappedByteBuffer).
+ * Запис — це копіювання в пам'ять без системного виклику; скидання на диск робить фоновий
+ * force() групою. Формат запису: [довжина][CRC32C][номер][довжина заголовка][заголовок][текст].
+ * Заголовок файлу зберігає позицію й номер найстарішого запису; кінець черги після перезапуску
+ * знаходиться скануванням: перший запис з неправильним номером чи CRC (обірваний запис або
+ * залишок попереднього кола) завершує чергу.
+ */
+class MappedNotificationSpool implements AutoCloseable {
+
+    private static final int MAGIC = 0x4E53504C;
+    private static final int HEADER_BYTES = 64;
+    // довжина(4) + crc(4) + номер(8) + довжина заголовка(4)
+    private static final int RECORD_HEADER = 20;
+    // Маркер "решта кола порожня, продовжуй з початку області даних"
+    private static final int WRAP = -1;
+
+    private final FileChannel file;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final CRC32C crc = new CRC32C();
+
+    // Логічні позиції ростуть монотонно; фізична = HEADER_BYTES + позиція % capacity
+    private long head;
+    private long tail;
+    private long headSequence;
+    private long count;
+    // Фізичний діапазон [dirtyFrom, dirtyTo), змінений після останнього force()
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo;
+
+    /** Відкриває або створює спул із областю даних capacity байтів (не більше ~2 ГБ). */
+    MappedNotificationSpool(Path path, int capacity) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = file.size() >= HEADER_BYTES;
+        if (existing && file.size() != HEADER_BYTES + (long) capacity) {
+            throw new IOException("Розмір спула " + path + " не відповідає capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+        if (existing && buffer.getInt(0) == MAGIC) {
+            head = buffer.getLong(8);
+            headSequence = buffer.getLong(16);
+            recover();
+        } else {
+            buffer.putInt(0, MAGIC);
+            writeHeader();
+            buffer.putInt(HEADER_BYTES, 0);
+        }
+    }
+
+    // Проходить записи від head, доки номери йдуть підряд і CRC збігається
+    private void recover() {
+        int first = skipWrap();
+        // Збій між оновленням номера та позиції в заголовку: запис на head ще не видалений
+        if (buffer.getInt(first) >= RECORD_HEADER && buffer.getLong(first + 8) == headSequence - 1) {
+            headSequence--;
+        }
+        long position = head;
+        long sequence = headSequence;
+        while (position - head < capacity) {
+            int offset = offset(position);
+            if (capacity - (offset - HEADER_BYTES) < 4) {
+                position += capacity - (offset - HEADER_BYTES);
+                continue;
+            }
+            int length = buffer.getInt(offset);
+            if (length == WRAP) {
+                position += capacity - (offset - HEADER_BYTES);
+                continue;
+            }
+            if (length < RECORD_HEADER || length > capacity - (offset - HEADER_BYTES)
+                    || buffer.getLong(offset + 8) != sequence || checksum(offset, length) != buffer.getInt(offset + 4)) {
+                break;
+            }
+            position += length;
+            sequence++;
+        }
+        tail = position;
+        count = sequence - headSequence;
+    }
+
+    /** Дописує сповіщення; false — у кільці немає місця. */
+    synchronized boolean append(String title, String message) {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER + titleBytes.length + messageBytes.length;
+        int offset = offset(tail);
+        long untilEnd = capacity - (offset - HEADER_BYTES);
+        // Запис не розрізається на межі кільця: залишок кола пропускається
+        long skip = untilEnd < length ? untilEnd : 0;
+        // +4 — місце для нульового термінатора після запису
+        if (capacity - (tail - head) < skip + length + 4) {
+            return false;
+        }
+        if (skip > 0) {
+            if (skip >= 4) {
+                buffer.putInt(offset, WRAP);
+                markDirty(offset, 4);
+            }
+            tail += skip;
+            offset = HEADER_BYTES;
+        }
+        long sequence = headSequence + count;
+        buffer.putLong(offset + 8, sequence);
+        buffer.putInt(offset + 16, titleBytes.length);
+        buffer.put(offset + RECORD_HEADER, titleBytes);
+        buffer.put(offset + RECORD_HEADER + titleBytes.length, messageBytes);
+        buffer.putInt(offset + 4, checksum(offset, length));
+        buffer.putInt(offset, length);
+        tail += length;
+        count++;
+        // Термінатор, щоб сканування після перезапуску не прийняло старі дані за продовження
+        int next = offset(tail);
+        if (capacity - (next - HEADER_BYTES) >= 4) {
+            buffer.putInt(next, 0);
+            markDirty(next, 4);
+        }
+        markDirty(offset, length);
+        return true;
+    }
+
+    /** Найстаріше сповіщення (title, message) або null, якщо спул порожній. */
+    synchronized String[] peek() {
+        if (count == 0) {
+            return null;
+        }
+        int offset = skipWrap();
+        int length = buffer.getInt(offset);
+        int titleLength = buffer.getInt(offset + 16);
+        byte[] titleBytes = new byte[titleLength];
+        byte[] messageBytes = new byte[length - RECORD_HEADER - titleLength];
+        buffer.get(offset + RECORD_HEADER, titleBytes);
+        buffer.get(offset + RECORD_HEADER + titleLength, messageBytes);
+        return new String[] {new String(titleBytes, StandardCharsets.UTF_8), new String(messageBytes, StandardCharsets.UTF_8)};
+    }
+
+    /** Видаляє найстаріше сповіщення після успішної доставки. */
+    synchronized void remove() {
+        if (count == 0) {
+            return;
+        }
+        int offset = skipWrap();
+        head += buffer.getInt(offset);
+        headSequence++;
+        count--;
+        writeHeader();
+    }
+
+    // Переводить head через маркер кінця кола й повертає фізичне зміщення першого запису.
+    // Новий head одразу потрапляє в заголовок: інакше append() міг би затерти звільнений
+    // залишок кола, а recover() після перезапуску почав би читання посеред запису
+    private int skipWrap() {
+        int offset = offset(head);
+        long untilEnd = capacity - (offset - HEADER_BYTES);
+        if (untilEnd < 4 || buffer.getInt(offset) == WRAP) {
+            head += untilEnd;
+            offset = HEADER_BYTES;
+            writeHeader();
+        }
+        return offset;
+    }
+
+    synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Скидає на диск змінений діапазон; викликається періодично, а не на кожен запис.
+     * msync виконується поза монітором, тож append() і remove() не чекають на диск.
+     * Зміни, зроблені під час скидання, потраплять у наступний виклик.
+     */
+    void force() {
+        int from;
+        int to;
+        synchronized (this) {
+            if (dirtyFrom >= dirtyTo) {
+                return;
+            }
+            from = dirtyFrom;
+            to = dirtyTo;
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = 0;
+        }
+        buffer.force(from, to - from);
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+
+    private void markDirty(int offset, int length) {
+        dirtyFrom = Math.min(dirtyFrom, offset);
+        dirtyTo = Math.max(dirtyTo, offset + length);
+    }
+
+    // Спершу номер, потім позиція: recover() розпізнає збій між цими двома записами
+    private void writeHeader() {
+        buffer.putLong(16, headSequence);
+        buffer.putLong(8, head);
+        markDirty(8, 16);
+    }
+
+    private int offset(long position) {
+        return HEADER_BYTES + (int) (position % capacity);
+    }
+
+    // CRC номера, довжини заголовка та вмісту
+    private int checksum(int offset, int length) {
+        crc.reset();
+        ByteBuffer record = buffer.duplicate();
+        record.limit(offset + length).position(offset + 8);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+}
+
+/**
+ * Декоратор, що не губить сповіщення, коли канал недоступний: невдалі відправки потрапляють
+ * у MappedNotificationSpool, а фоновий потік доставляє їх по черзі з експоненційною затримкою
+ * між спробами. Поки спул не порожній, нові сповіщення теж ідуть у нього — так зберігається
+ * порядок, а недоступний канал не отримує зайвих викликів. Доставка — щонайменше один раз.
+ */
+class SpoolingNotification implements Notification, AutoCloseable {
+
+    private final Notification delegate;
+    private final MappedNotificationSpool spool;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final ScheduledExecutorService redelivery;
+    // Окремий потік для force(): цикл доставки може довго висіти в delegate.send()
+    private final ScheduledExecutorService flusher;
+    // Чи запущено цикл повторної доставки; він один, доки спул не спорожніє
+    private final AtomicBoolean redelivering = new AtomicBoolean();
+    private long backoffNanos;
+
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public SpoolingNotification(Notification delegate, MappedNotificationSpool spool,
+                                Duration initialBackoff, Duration maxBackoff) {
+        this.delegate = delegate;
+        this.spool = spool;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.backoffNanos = initialBackoffNanos;
+        this.redelivery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-spool-force");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(spool::force, 100, 100, TimeUnit.MILLISECONDS);
+        // Записи, що лишилися з попереднього запуску, доставляються одразу
+        if (spool.size() > 0 && redelivering.compareAndSet(false, true)) {
+            redelivery.execute(this::redeliver);
+        }
+    }
+
+    @Override
+    public void send(String title, String message) {
+        if (spool.size() == 0) {
+            try {
+                delegate.send(title, message);
+                return;
+            } catch (RuntimeException e) {
+                // Канал недоступний — сповіщення піде через спул
+            }
+        }
+        if (!spool.append(title, message)) {
+            rejected.increment();
+            throw new IllegalStateException("Спул сповіщень переповнено");
+        }
+        spooled.increment();
+        if (redelivering.compareAndSet(false, true)) {
+            redelivery.schedule(this::redeliver, initialBackoffNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Виконується лише потоком redelivery: доставляє записи, доки канал відповідає
+    private void redeliver() {
+        while (true) {
+            String[] next = spool.peek();
+            if (next == null) {
+                redelivering.set(false);
+                // Запис, доданий між peek() і скиданням прапорця, не має лишитися без циклу
+                if (spool.size() == 0 || !redelivering.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                delegate.send(next[0], next[1]);
+            } catch (RuntimeException e) {
+                // Експоненційна затримка з випадковим розкидом, щоб відновлений канал не отримав шквал
+                long delay = backoffNanos / 2 + ThreadLocalRandom.current().nextLong(backoffNanos / 2 + 1);
+                backoffNanos = Math.min(maxBackoffNanos, backoffNanos * 2);
+                redelivery.schedule(this::redeliver, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+            spool.remove();
+            redelivered.increment();
+            backoffNanos = initialBackoffNanos;
+        }
+    }
+
+    public long getSpooled() {
+        return spooled.sum();
+    }
+
+    public long getRedelivered() {
+        return redelivered.sum();
+    }
+
+    public long getPending() {
+        return spool.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        redelivery.shutdownNow();
+        flusher.shutdown();
+        try {
+            redelivery.awaitTermination(5, TimeUnit.SECONDS);
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SpoolingNotification{spooled=" + getSpooled() + ", redelivered=" + getRedelivered()
+                + ", pending=" + getPending() + ", rejected=" + rejected.sum() + "}";
     }
 }
 
@@ -156,7 +2442,302 @@ public class AdapterDemo {
         SmsSender smsSender = new SmsSender("+380991112233", "Monitoring");
         Notification smsAdapter = new SmsNotificationAdapter(smsSender);
         notifyAdmin(smsAdapter, title, message);
+
+        // 4. Асинхронна доставка: повільний SMS-шлюз не блокує потік, що надсилає сповіщення
+        System.out.println("\n--- Asynchronous dispatch ---");
+        Notification slowSms = (t, m) -> {
+            sleep(200);
+            smsAdapter.send(t, m);
+        };
+        Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"), "notification-spill");
+        try (NotificationDispatcher dispatcher = new NotificationDispatcher(spillDirectory)) {
+            dispatcher.register("email", emailNotification, 64, 1, OverflowPolicy.BLOCK)
+                    .register("slack", slackAdapter, 64, 1, OverflowPolicy.DROP_OLDEST)
+                    .register("sms", slowSms, 2, 1, OverflowPolicy.SPILL_TO_DISK);
+
+            long start = System.nanoTime();
+            for (int i = 1; i <= 5; i++) {
+                dispatcher.dispatchAll(title + " #" + i, message);
+            }
+            System.out.printf("Producer spent %d us on 15 notifications%n", (System.nanoTime() - start) / 1_000);
+            notifyAdmin(dispatcher.channel("sms"), title, "Queued without waiting for the SMS gateway.");
+
+            dispatcher.close(Duration.ofSeconds(5));
+            System.out.println(dispatcher.stats("email"));
+            System.out.println(dispatcher.stats("slack"));
+            System.out.println(dispatcher.stats("sms"));
+        }
+
+        // 5. Пакетна публікація в Slack: десять сповіщень — два виклики post()
+        System.out.println("\n--- Batched Slack posting ---");
+        try (SlackBatcher batcher = new SlackBatcher(5, Duration.ofMillis(200))) {
+            Notification batchedSlack = new SlackNotificationAdapter(slackApi, batcher);
+            for (int i = 1; i <= 10; i++) {
+                batchedSlack.send("Disk usage", "Node " + i + " is above 90%.");
+            }
+            System.out.println("Messages " + batcher.getMessages() + ", posts " + batcher.getPosts());
+        }
+
+        // 6. Багаточастинні SMS: кодування та кількість сегментів визначаються за один прохід
+        System.out.println("\n--- Segment-aware SMS ---");
+        Notification longSms = new SmsNotificationAdapter(smsSender, 3);
+        longSms.send(title, message + " " + message);
+        longSms.send(title, "Збій бази даних: сервіс працює лише на читання. " + message + " " + message);
+
+        // 7. Хеджування та circuit breaker: деградований Slack підміняється email
+        System.out.println("\n--- Hedging and circuit breaking ---");
+        AtomicInteger viaSlack = new AtomicInteger();
+        AtomicInteger viaEmail = new AtomicInteger();
+        SimulatedSlowNotification degradedSlack = new SimulatedSlowNotification((t, m) -> viaSlack.incrementAndGet());
+        ResilientNotification resilient = new ResilientNotification("slack", degradedSlack,
+                (t, m) -> viaEmail.incrementAndGet(), 100)
+                .tripOn(Duration.ofMillis(100), 0.2, 10)
+                .openFor(Duration.ofMillis(500));
+
+        degradedSlack.degrade(2, 0);
+        for (int i = 0; i < 20; i++) {
+            resilient.send("Info", "Heartbeat " + i);
+        }
+        System.out.println("Healthy:  " + resilient + ", slack=" + viaSlack + ", email=" + viaEmail);
+
+        degradedSlack.degrade(300, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            resilient.send(title, message);
+        }
+        System.out.printf("Degraded: 5 critical alerts took %d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // Повільні основні виклики завершуються у фоні й розмикають ланцюг
+        sleep(400);
+        resilient.send("Info", "Sent while the circuit is open");
+        System.out.println("Tripped:  " + resilient + ", slack=" + viaSlack + ", email=" + viaEmail);
+
+        sleep(600);
+        degradedSlack.degrade(2, 0);
+        resilient.send("Info", "Probe after recovery");
+        System.out.println("Recovered: " + resilient + ", slack=" + viaSlack + ", email=" + viaEmail);
+
+        // 8. EDF-планування: критичне сповіщення не чекає за тисячами інформаційних
+        System.out.println("\n--- Deadline scheduling ---");
+        NotificationScheduler scheduler = new NotificationScheduler(4)
+                .register("email", (t, m) -> sleep(1), 2)
+                .register("slack", (t, m) -> sleep(1), 2)
+                .register("sms", (t, m) -> sleep(50), 1);
+        for (int i = 0; i < 2_000; i++) {
+            scheduler.schedule(i % 2 == 0 ? "email" : "slack", NotificationPriority.INFO, "Info", "Metric " + i);
+        }
+        long submitted = System.nanoTime();
+        scheduler.schedule("slack", NotificationPriority.CRITICAL, title, message).join();
+        System.out.printf("CRITICAL delivered in %d ms behind 2000 queued INFO messages%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted));
+        // Дедлайн 20 мс для SMS з затримкою 50 мс гарантовано пропускається
+        for (int i = 0; i < 3; i++) {
+            scheduler.schedule("sms", NotificationPriority.HIGH, Duration.ofMillis(20), title, message);
+        }
+        scheduler.close();
+        System.out.println(scheduler);
+
+        // 9. Спул недоставлених сповіщень: SMS-шлюз лежить, сповіщення чекають у файлі
+        System.out.println("\n--- Persistent spool ---");
+        AtomicBoolean gatewayUp = new AtomicBoolean(false);
+        AtomicInteger deliveredSms = new AtomicInteger();
+        Notification flakySms = (t, m) -> {
+            if (!gatewayUp.get()) {
+                throw new IllegalStateException("SMS gateway is down");
+            }
+            deliveredSms.incrementAndGet();
+        };
+        Path spoolFile = spillDirectory.resolve("sms.spool");
+        try {
+            Files.deleteIfExists(spoolFile);
+            SpoolingNotification spooling = new SpoolingNotification(flakySms,
+                    new MappedNotificationSpool(spoolFile, 4 << 20),
+                    Duration.ofMillis(20), Duration.ofMillis(200));
+            long spoolStart = System.nanoTime();
+            for (int i = 0; i < 10_000; i++) {
+                spooling.send(title, message + " #" + i);
+            }
+            System.out.printf("Spooled 10000 alerts in %d ms: %s%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - spoolStart), spooling);
+            spooling.close();
+
+            // "Перезапуск": новий екземпляр підхоплює файл і доставляє, щойно шлюз оживає
+            SpoolingNotification restarted = new SpoolingNotification(flakySms,
+                    new MappedNotificationSpool(spoolFile, 4 << 20),
+                    Duration.ofMillis(20), Duration.ofMillis(200));
+            System.out.println("After restart pending=" + restarted.getPending());
+            gatewayUp.set(true);
+            while (restarted.getPending() > 0) {
+                sleep(20);
+            }
+            System.out.println("Delivered " + deliveredSms.get() + ": " + restarted);
+            restarted.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // 10. Шторм однакових сповіщень: у Slack іде перше та один підсумок
+        System.out.println("\n--- Alert storm coalescing ---");
+        try (CoalescingNotification coalescing = new CoalescingNotification(slackAdapter,
+                Duration.ofMillis(300), 1_000, CoalescingNotification.BY_TEMPLATE)) {
+            for (int i = 0; i < 10_000; i++) {
+                coalescing.send(title, "Database connection timed out after " + (500 + i % 7) + " ms.");
+            }
+            sleep(500);
+            System.out.println("Received " + coalescing.getReceived() + ", delivered " + coalescing.getDelivered());
+        }
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
 
+/**
+ * Перевірка MappedNotificationSpool на перезапусках: випадкові append/peek/remove на малому
+ * кільці, що постійно переходить межу кола, з повторним відкриттям файлу після кожного кроку.
+ * Вміст черги після відкриття має збігатися з моделлю в пам'яті; розбіжність завершує запуск.
+ * Запуск: java -cp <out> MappedNotificationSpoolRestartCheck [кроків]
+ */
+class MappedNotificationSpoolRestartCheck {
+
+    public static void main(String[] args) throws IOException {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path path = Files.createTempFile("spool-restart", ".bin");
+        Files.delete(path);
+        Random random = new Random(42);
+        ArrayDeque<String> expected = new ArrayDeque<>();
+        long wraps = 0;
+        long lastHead = 0;
+        MappedNotificationSpool spool = new MappedNotificationSpool(path, 200);
+        try {
+            for (int step = 0; step < steps; step++) {
+                int action = random.nextInt(10);
+                if (action < 5) {
+                    String message = "m" + step + "-".repeat(random.nextInt(40));
+                    if (spool.append("t", message)) {
+                        expected.addLast(message);
+                    }
+                } else if (action < 8) {
+                    // Невдала повторна доставка: peek() без remove()
+                    String[] head = spool.peek();
+                    check(head == null ? expected.isEmpty() : head[1].equals(expected.peekFirst()), step, "peek", spool, expected);
+                } else if (!expected.isEmpty()) {
+                    spool.remove();
+                    expected.removeFirst();
+                }
+                spool.close();
+                spool = new MappedNotificationSpool(path, 200);
+                check(spool.size() == expected.size(), step, "size", spool, expected);
+                long head = currentHead(path);
+                if (head / 200 > lastHead / 200) {
+                    wraps++;
+                }
+                lastHead = head;
+            }
+            check(wraps > 0, steps, "wraps", spool, expected);
+            List<String> drained = new ArrayList<>();
+            for (String[] next; (next = spool.peek()) != null; spool.remove()) {
+                drained.add(next[1]);
+            }
+            check(drained.equals(new ArrayList<>(expected)), steps, "drain", spool, expected);
+            System.out.println("OK: " + steps + " steps with reopen, " + wraps + " ring wraps");
+        } finally {
+            spool.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // Логічна позиція head із заголовка файлу
+    private static long currentHead(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            return header.getLong(8);
+        }
+    }
+
+    private static void check(boolean condition, int step, String what, MappedNotificationSpool spool, ArrayDeque<String> expected) {
+        if (!condition) {
+            throw new AssertionError("Крок " + step + ", " + what + ": у спулі " + spool.size()
+                    + " записів, очікувалось " + expected.size());
+        }
+    }
+}
+
+/**
+ * Перевірка ResilientNotification на імітованому повільному каналі: розмикання ланцюга під
+ * повільними викликами, відправка в резервний канал за розімкненого ланцюга, хеджування
+ * критичного сповіщення в межах затримки хеджу та замикання після швидкої проби в HALF_OPEN.
+ * Будь-який неправильний стан завершує запуск з AssertionError.
+ * Запуск: java -cp <out> ResilientNotificationCheck
+ */
+class ResilientNotificationCheck {
 
+    public static void main(String[] args) {
+        checkTripShortCircuitAndRecovery();
+        checkCriticalHedging();
+        System.out.println("OK: ResilientNotification");
+    }
+
+    private static void checkTripShortCircuitAndRecovery() {
+        AtomicInteger primaryDelivered = new AtomicInteger();
+        AtomicInteger fallbackDelivered = new AtomicInteger();
+        SimulatedSlowNotification slow = new SimulatedSlowNotification((t, m) -> primaryDelivered.incrementAndGet());
+        ResilientNotification resilient = new ResilientNotification("slow", slow,
+                (t, m) -> fallbackDelivered.incrementAndGet(), 20)
+                .tripOn(Duration.ofMillis(20), 0.5, 5)
+                .openFor(Duration.ofMillis(300));
+
+        slow.degrade(40, 0);
+        for (int i = 0; i < 5; i++) {
+            resilient.send("Status", "slow " + i);
+        }
+        check(resilient.getState() == ResilientNotification.State.OPEN, "повільні виклики розмикають ланцюг", resilient);
+
+        int primaryBefore = primaryDelivered.get();
+        resilient.send("Status", "while open");
+        check(fallbackDelivered.get() == 1 && resilient.getShortCircuited() == 1,
+                "за розімкненого ланцюга сповіщення йде в резервний канал", resilient);
+        check(primaryDelivered.get() == primaryBefore, "розімкнений ланцюг не викликає основний канал", resilient);
+
+        slow.degrade(0, 0);
+        AdapterDemo.sleep(350);
+        resilient.send("Status", "probe");
+        check(resilient.getState() == ResilientNotification.State.CLOSED, "швидка проба в HALF_OPEN замикає ланцюг", resilient);
+        check(primaryDelivered.get() == primaryBefore + 1, "проба доставлена основним каналом", resilient);
+    }
+
+    private static void checkCriticalHedging() {
+        AtomicInteger fallbackDelivered = new AtomicInteger();
+        SimulatedSlowNotification slow = new SimulatedSlowNotification((t, m) -> { });
+        ResilientNotification resilient = new ResilientNotification("hedged", slow,
+                (t, m) -> fallbackDelivered.incrementAndGet(), 20)
+                .tripOn(Duration.ofSeconds(10), 1.0, 1_000)
+                .hedgeDelay(Duration.ofMillis(20), Duration.ofMillis(50));
+
+        slow.degrade(1_000, 0);
+        long start = System.nanoTime();
+        resilient.send("CRITICAL", "primary hangs");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        check(fallbackDelivered.get() == 1 && resilient.getHedges() == 1 && resilient.getHedgeWins() == 1,
+                "критичне сповіщення хеджується в резервний канал", resilient);
+        // Затримка хеджу 20 мс плюс запас на планування потоків, але набагато менше за 1 с основного
+        check(elapsedMillis < 250, "хедж завершується в межах затримки хеджу, а не основного каналу ("
+                + elapsedMillis + " мс)", resilient);
+
+        resilient.send("Status", "not critical");
+        check(resilient.getHedges() == 1, "некритичне сповіщення не хеджується", resilient);
+    }
+
+    private static void check(boolean condition, String expectation, ResilientNotification resilient) {
+        if (!condition) {
+            throw new AssertionError("Не виконано: " + expectation + "; " + resilient);
+        }
+    }
+}
@@ -1,4 +1,9 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 // Лабораторна робота №5
 // Тема: Патерн проектування "Міст" (Bridge)
@@ -40,6 +45,51 @@ interface Renderer {
     String renderBlock(String content);
     String renderProductInfo(String name, String description, String image, String id);
     String renderFinal(String elements);
+
+    // Потокові варіанти: фрагменти пишуться одразу в out, без проміжних рядків.
+    // writeStart/writeEnd - це обгортка renderFinal до та після елементів.
+    // Реалізації за замовчуванням спираються на рядкові методи, тож підходять будь-якому Renderer:
+    // обгортку шукають за позначкою в renderFinal, а якщо renderFinal її змінює (наприклад, екранує),
+    // Page збирає сторінку через renderFinal.
+
+    default void writeStart(Appendable out) throws IOException {
+        String frame = renderFinal(RendererFrame.MARKER);
+        out.append(frame, 0, frame.indexOf(RendererFrame.MARKER));
+    }
+
+    default void writeTitle(Appendable out, String title) throws IOException {
+        out.append(renderTitle(title));
+    }
+
+    default void writeBlock(Appendable out, String content) throws IOException {
+        out.append(renderBlock(content));
+    }
+
+    default void writeProductInfo(Appendable out, String name, String description, String image, String id)
+            throws IOException {
+        out.append(renderProductInfo(name, description, image, id));
+    }
+
+    default void writeEnd(Appendable out) throws IOException {
+        String frame = renderFinal(RendererFrame.MARKER);
+        out.append(frame, frame.indexOf(RendererFrame.MARKER) + RendererFrame.MARKER.length(), frame.length());
+    }
+}
+
+// Позначка місця елементів у результаті renderFinal для потокових методів за замовчуванням
+final class RendererFrame {
+    static final String MARKER = "\u0000elements\u0000";
+
+    // Чи зберігає renderFinal класу позначку, тобто чи можна обгортку писати потоково
+    private static final ConcurrentMap<Class<?>, Boolean> KEEPS_MARKER = new ConcurrentHashMap<>();
+
+    private RendererFrame() {
+    }
+
+    static boolean keepsMarker(Renderer renderer) {
+        return KEEPS_MARKER.computeIfAbsent(renderer.getClass(),
+                type -> renderer.renderFinal(MARKER).contains(MARKER));
+    }
 }
 
 // Concrete Implementor 1
@@ -67,6 +117,36 @@ class HTMLRenderer implements Renderer {
     public String renderFinal(String elements) {
         return "<html>\n<body>" + elements + "\n</body>\n</html>";
     }
+
+    @Override
+    public void writeStart(Appendable out) throws IOException {
+        out.append("<html>\n<body>");
+    }
+
+    @Override
+    public void writeTitle(Appendable out, String title) throws IOException {
+        out.append("\n  <h1>").append(title).append("</h1>");
+    }
+
+    @Override
+    public void writeBlock(Appendable out, String content) throws IOException {
+        out.append("\n  <p>").append(content).append("</p>");
+    }
+
+    @Override
+    public void writeProductInfo(Appendable out, String name, String description, String image, String id)
+            throws IOException {
+        out.append("\n  <div class=\"product\">")
+           .append("\n    <h2>Product: ").append(name).append(" (ID: ").append(id).append(")</h2>")
+           .append("\n    <img src=\"").append(image).append("\">")
+           .append("\n    <p>Description: ").append(description).append("</p>")
+           .append("\n  </div>");
+    }
+
+    @Override
+    public void writeEnd(Appendable out) throws IOException {
+        out.append("\n</body>\n</html>");
+    }
 }
 
 // Concrete Implementor 2
@@ -95,6 +175,37 @@ class JsonRenderer implements Renderer {
     public String renderFinal(String elements) {
         return "{\n" + elements + "\n}";
     }
+
+    @Override
+    public void writeStart(Appendable out) throws IOException {
+        out.append("{\n");
+    }
+
+    @Override
+    public void writeTitle(Appendable out, String title) throws IOException {
+        out.append("\"title\": \"").append(title).append('"');
+    }
+
+    @Override
+    public void writeBlock(Appendable out, String content) throws IOException {
+        out.append(",\n\"content\": \"").append(content).append('"');
+    }
+
+    @Override
+    public void writeProductInfo(Appendable out, String name, String description, String image, String id)
+            throws IOException {
+        out.append("\"product\": {")
+           .append("\n  \"id\": \"").append(id).append("\",")
+           .append("\n  \"name\": \"").append(name).append("\",")
+           .append("\n  \"description\": \"").append(description).append("\",")
+           .append("\n  \"image_url\": \"").append(image).append('"')
+           .append("\n}");
+    }
+
+    @Override
+    public void writeEnd(Appendable out) throws IOException {
+        out.append("\n}");
+    }
 }
 
 // Concrete Implementor 3
@@ -122,6 +233,36 @@ class XmlRenderer implements Renderer {
     public String renderFinal(String elements) {
         return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<page>" + elements + "\n</page>";
     }
+
+    @Override
+    public void writeStart(Appendable out) throws IOException {
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<page>");
+    }
+
+    @Override
+    public void writeTitle(Appendable out, String title) throws IOException {
+        out.append("<title>").append(title).append("</title>");
+    }
+
+    @Override
+    public void writeBlock(Appendable out, String content) throws IOException {
+        out.append("<content>").append(content).append("</content>");
+    }
+
+    @Override
+    public void writeProductInfo(Appendable out, String name, String description, String image, String id)
+            throws IOException {
+        out.append("<product id=\"").append(id).append("\">")
+           .append("<name>").append(name).append("</name>")
+           .append("<description>").append(description).append("</description>")
+           .append("<image>").append(image).append("</image>")
+           .append("</product>");
+    }
+
+    @Override
+    public void writeEnd(Appendable out) throws IOException {
+        out.append("\n</page>");
+    }
 }
 
 
@@ -139,8 +280,115 @@ abstract class Page {
         this.renderer = renderer;
     }
 
-    // Основний метод Абстракції
-    abstract String view();
+    // Основний метод Абстракції: сторінка збирається одним проходом у буфер
+    String view() {
+        StringBuilder out = new StringBuilder(256);
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            // StringBuilder не кидає IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Потоковий рендеринг: фрагменти пишуться одразу в out (StringBuilder, Writer тощо),
+     * тож сторінка не копіюється в проміжні рядки, а додаткова пам'ять не залежить від її розміру.
+     */
+    void writeTo(Appendable out) throws IOException {
+        if (!RendererFrame.keepsMarker(renderer)) {
+            // renderFinal не вставляє елементи дослівно: обгортку можна отримати лише від нього самого
+            StringBuilder elements = new StringBuilder(256);
+            writeElements(elements);
+            out.append(renderer.renderFinal(elements.toString()));
+            return;
+        }
+        renderer.writeStart(out);
+        writeElements(out);
+        renderer.writeEnd(out);
+    }
+
+    // Елементи сторінки між writeStart і writeEnd
+    abstract void writeElements(Appendable out) throws IOException;
+
+    /**
+     * Рендерить сторінку в UTF-8 прямо в ByteBuffer.
+     * Якщо місця недостатньо, кидає java.nio.BufferOverflowException.
+     */
+    void writeTo(ByteBuffer out) {
+        Utf8ByteBufferAppendable utf8 = new Utf8ByteBufferAppendable(out);
+        try {
+            writeTo(utf8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        utf8.finish();
+    }
+}
+
+/**
+ * Appendable, що кодує символи в UTF-8 одразу в ByteBuffer, без проміжних рядків і масивів.
+ */
+class Utf8ByteBufferAppendable implements Appendable {
+    private final ByteBuffer out;
+    // Старша половина сурогатної пари, друга половина якої прийде наступним викликом
+    private char pendingHighSurrogate;
+
+    Utf8ByteBufferAppendable(ByteBuffer out) {
+        this.out = out;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                out.put((byte) (0xF0 | (codePoint >>> 18)))
+                   .put((byte) (0x80 | ((codePoint >>> 12) & 0x3F)))
+                   .put((byte) (0x80 | ((codePoint >>> 6) & 0x3F)))
+                   .put((byte) (0x80 | (codePoint & 0x3F)));
+                return this;
+            }
+            // Непарний сурогат замінюється на '?', як це робить String.getBytes
+            out.put((byte) '?');
+        }
+        if (c < 0x80) {
+            out.put((byte) c);
+        } else if (c < 0x800) {
+            out.put((byte) (0xC0 | (c >>> 6))).put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            out.put((byte) '?');
+        } else {
+            out.put((byte) (0xE0 | (c >>> 12))).put((byte) (0x80 | ((c >>> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+        }
+        return this;
+    }
+
+    /** Завершує запис: старша половина сурогату без пари в кінці тексту замінюється на '?'. */
+    void finish() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            out.put((byte) '?');
+        }
+    }
 }
 
 /**
@@ -158,9 +406,9 @@ class SimplePage extends Page {
 
     // Використовує Renderer для збирання кінцевого продукту
     @Override
-    String view() {
-        String elements = renderer.renderTitle(title) + renderer.renderBlock(content);
-        return renderer.renderFinal(elements);
+    void writeElements(Appendable out) throws IOException {
+        renderer.writeTitle(out, title);
+        renderer.writeBlock(out, content);
     }
 }
 
@@ -177,15 +425,14 @@ class ProductPage extends Page {
 
     // Використовує Renderer для збирання кінцевого продукту
     @Override
-    String view() {
+    void writeElements(Appendable out) throws IOException {
         // Рендеринг специфічних для товару даних
-        String elements = renderer.renderProductInfo(
+        renderer.writeProductInfo(out,
             product.getName(),
             product.getDescription(),
             product.getImage(),
             product.getId()
         );
-        return renderer.renderFinal(elements);
     }
 }
 
@@ -193,7 +440,7 @@ class ProductPage extends Page {
 // 4. Клієнтський Код
 
 public class BridgeDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Дані для сторінок
         Product gamingLaptop = new Product("L001", "Gaming Laptop", "High-performance PC for professional gamers.", "laptop_img.jpg");
         
@@ -236,5 +483,105 @@ public class BridgeDemo {
         Page laptopXml = new ProductPage(xmlRenderer, gamingLaptop);
         System.out.println("\n--- Product Page XML ---");
         System.out.println(laptopXml.view());
+
+
+        System.out.println("\n--- 3. Потоковий рендеринг ---");
+
+        // G. Запис прямо у Writer, без проміжного рядка сторінки
+        java.io.Writer console = new java.io.OutputStreamWriter(System.out, java.nio.charset.StandardCharsets.UTF_8);
+        System.out.println("\n--- Product Page HTML -> Writer ---");
+        laptopHtml.writeTo(console);
+        console.write(System.lineSeparator());
+        console.flush();
+
+        // H. Запис у ByteBuffer в UTF-8 (наприклад, для відправки через канал)
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        laptopJson.writeTo(buffer);
+        buffer.flip();
+        System.out.println("\n--- Product Page JSON -> ByteBuffer (" + buffer.remaining() + " bytes) ---");
+        System.out.println(java.nio.charset.StandardCharsets.UTF_8.decode(buffer));
+    }
+}
+
+/**
+ * Порівнює рендеринг великої сторінки конкатенацією рядків (як view() до потокового API)
+ * з потоковим writeTo у Writer та ByteBuffer: час і виділена пам'ять на сторінку.
+ * Запуск: java -cp <out> PageRenderingBenchmark
+ */
+class PageRenderingBenchmark {
+
+    private static final int PAGE_CHARS = 1 << 20;
+    private static final int PAGES = 200;
+
+    public static void main(String[] args) throws IOException {
+        StringBuilder content = new StringBuilder(PAGE_CHARS);
+        while (content.length() < PAGE_CHARS) {
+            content.append("Опис товару / product description ").append(content.length()).append(". ");
+        }
+        String title = "Large page";
+        String text = content.toString();
+
+        java.io.Writer writer = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+                java.io.OutputStream.nullOutputStream(), java.nio.charset.StandardCharsets.UTF_8), 8192);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_CHARS * 3);
+        long checksum = 0;
+
+        for (Renderer renderer : new Renderer[] {new HTMLRenderer(), new JsonRenderer(), new XmlRenderer()}) {
+            Page page = new SimplePage(renderer, title, text);
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                long allocated = allocatedBytes();
+                for (int i = 0; i < PAGES; i++) {
+                    writer.write(renderer.renderFinal(renderer.renderTitle(title) + renderer.renderBlock(text)));
+                }
+                writer.flush();
+                long concatWriterNanos = System.nanoTime() - start;
+                long concatWriterBytes = allocatedBytes() - allocated;
+
+                start = System.nanoTime();
+                allocated = allocatedBytes();
+                for (int i = 0; i < PAGES; i++) {
+                    page.writeTo(writer);
+                }
+                writer.flush();
+                long streamWriterNanos = System.nanoTime() - start;
+                long streamWriterBytes = allocatedBytes() - allocated;
+
+                start = System.nanoTime();
+                allocated = allocatedBytes();
+                for (int i = 0; i < PAGES; i++) {
+                    buffer.clear();
+                    buffer.put(renderer.renderFinal(renderer.renderTitle(title) + renderer.renderBlock(text))
+                            .getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                    checksum += buffer.position();
+                }
+                long concatBufferNanos = System.nanoTime() - start;
+                long concatBufferBytes = allocatedBytes() - allocated;
+
+                start = System.nanoTime();
+                allocated = allocatedBytes();
+                for (int i = 0; i < PAGES; i++) {
+                    buffer.clear();
+                    page.writeTo(buffer);
+                    checksum += buffer.position();
+                }
+                long streamBufferNanos = System.nanoTime() - start;
+                long streamBufferBytes = allocatedBytes() - allocated;
+
+                System.out.printf("%s round %d: Writer concat %.0f us/page %d B/page, stream %.0f us/page %d B/page;"
+                                + " ByteBuffer concat %.0f us/page %d B/page, stream %.0f us/page %d B/page%n",
+                        renderer.getClass().getSimpleName(), round,
+                        concatWriterNanos / 1e3 / PAGES, concatWriterBytes / PAGES,
+                        streamWriterNanos / 1e3 / PAGES, streamWriterBytes / PAGES,
+                        concatBufferNanos / 1e3 / PAGES, concatBufferBytes / PAGES,
+                        streamBufferNanos / 1e3 / PAGES, streamBufferBytes / PAGES);
+            }
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 }